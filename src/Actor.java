@@ -1,4 +1,33 @@
-
-public interface Actor {
-
-}
+/**
+ * A process in a simulation other than the animals, such as the
+ * weather, a hunting season, a wave of disease or a sampler of
+ * statistics. An actor runs once every so many steps, its period, and
+ * costs nothing on the steps in between; see Simulator.addActor().
+ * 
+ * An actor that changes the simulation must do so through methods of
+ * the Simulator that are written to its history, such as
+ * publishParameters() or infect(), so that the history still tells
+ * the state of the simulation.
+ */
+public interface Actor
+{
+    /**
+     * @return The number of steps between two runs; at least 1.
+     */
+    int getPeriod();
+    
+    /**
+     * @return The step within the period at which the actor runs: it
+     *         runs at the steps phase, phase + period, phase + 2 period
+     *         and so on, from the first of those after it is added.
+     */
+    int getPhase();
+    
+    /**
+     * Run at the end of a step, after the animals have acted and
+     * before the observers are told about the step.
+     * @param simulator The simulation.
+     * @param step The step that has just been simulated.
+     */
+    void act(Simulator simulator, int step);
+}
@@ -0,0 +1,138 @@
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Runs the actors of a simulation at the steps at which they are due.
+ * The actors wait in a priority queue by the step at which they next
+ * run, so a step only touches the actors that run in it, and an actor
+ * with a long period costs nothing on the steps in between. Actors due
+ * at the same step run in the order in which they were added.
+ */
+public class ActorScheduler
+{
+    // The actors, by the step at which they next run.
+    private PriorityQueue<Entry> queue;
+    // The number of actors added so far, to keep them in order.
+    private long added;
+    // The actor running now, or null.
+    private Entry running;
+
+    /**
+     * Create a scheduler without actors.
+     */
+    public ActorScheduler()
+    {
+        queue = new PriorityQueue<Entry>();
+    }
+
+    /**
+     * Add an actor, which first runs at the first step after the given
+     * one that its period and phase call for.
+     * @param actor The actor.
+     * @param step The current step.
+     * @throws IllegalArgumentException If the period is not positive
+     *                                  or the phase is negative.
+     */
+    public void add(Actor actor, int step)
+    {
+        if(actor.getPeriod() < 1 || actor.getPhase() < 0) {
+            throw new IllegalArgumentException("Period " + actor.getPeriod() + " and phase "
+                                               + actor.getPhase() + " of " + actor);
+        }
+        queue.add(new Entry(actor, nextStep(actor, step), added++));
+    }
+
+    /**
+     * Remove an actor, which may be running now.
+     * @param actor The actor.
+     * @return true if the actor had been added.
+     */
+    public boolean remove(Actor actor)
+    {
+        if(running != null && running.actor == actor && !running.removed) {
+            running.removed = true;
+            return true;
+        }
+        for(Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+            if(it.next().actor == actor) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there are no actors.
+     */
+    public boolean isEmpty()
+    {
+        return queue.isEmpty() && (running == null || running.removed);
+    }
+
+    /**
+     * Run the actors that are due at the given step, or were due
+     * before it. An actor that has missed several runs runs once.
+     * @param simulator The simulation.
+     * @param step The step that has just been simulated.
+     */
+    public void run(Simulator simulator, int step)
+    {
+        while(!queue.isEmpty() && queue.peek().step <= step) {
+            running = queue.poll();
+            try {
+                running.actor.act(simulator, step);
+            }
+            finally {
+                if(!running.removed) {
+                    running.step = nextStep(running.actor, step);
+                    queue.add(running);
+                }
+                running = null;
+            }
+        }
+    }
+
+    /**
+     * @return The first step after the given one at which the actor runs.
+     */
+    private static int nextStep(Actor actor, int step)
+    {
+        int period = actor.getPeriod();
+        int phase = actor.getPhase();
+        if(step < phase) {
+            return phase;
+        }
+        return step + period - (step - phase) % period;
+    }
+
+    /**
+     * An actor waiting in the queue.
+     */
+    private static class Entry implements Comparable<Entry>
+    {
+        // The actor.
+        private final Actor actor;
+        // The step at which it next runs.
+        private int step;
+        // The number of actors added before it.
+        private final long order;
+        // Whether it was removed while running.
+        private boolean removed;
+
+        Entry(Actor actor, int step, long order)
+        {
+            this.actor = actor;
+            this.step = step;
+            this.order = order;
+        }
+
+        public int compareTo(Entry other)
+        {
+            if(step != other.step) {
+                return step < other.step ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order > other.order ? 1 : 0);
+        }
+    }
+}
@@ -1,39 +1,360 @@
+import java.io.Serializable;
 import java.util.List;
 
 /**
  * A class representing shared characteristics of animals.
  * 
+ * An animal belongs to one simulation and is only changed by it.
+ * When a simulation is forked, its animals are shared by both
+ * branches until one of them changes an animal; that branch then
+ * changes a copy of its own; see Simulator.own().
+ * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public abstract class Animal
+public abstract class Animal implements Serializable, Cloneable
 {
+    private static final long serialVersionUID = 1L;
+
     // Whether the animal is alive or not.
     private boolean alive;
     // The animal's field.
     private Field field;
     // The animal's position in the field.
     private Location location;
+    // The simulation the animal belongs to.
+    private Simulator simulator;
+    // The step in which the animal was born. Its age follows from this
+    // rather than being counted up every step.
+    private int birthStep;
+    // The step in which the animal starves unless it eats before then.
+    private int starveStep;
+    // The age at which the animal breeds next when breeding is scheduled
+    // ahead, or -1 if no breeding age has been drawn yet.
+    private int nextBreedingAge;
+    // The breeding parameter version nextBreedingAge was drawn for.
+    private int breedingVersion;
+    // The animal's position in an event queue, or -1 if it is not queued.
+    private int queueIndex;
+    // The key of the animal's own random streams, used with common
+    // random numbers; see Randomizer.
+    private long stream;
+    // The number of words drawn for moving and for acting.
+    private int moves, acts;
+    // The generation of the simulation the animal belongs to; the
+    // animal is shared once the simulation has been forked since.
+    private int generation;
+    // The last step in which the animal has acted, or was born.
+    private int actedStep;
+    // The id of the animal's species in the species table, and its bit.
+    private int speciesId;
+    private long speciesMask;
     
     /**
      * Create a new animal at location in field.
      * 
+     * @param species The animal's species.
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Animal(Field field, Location location)
+    public Animal(Species species, Field field, Location location)
     {
+        speciesId = species.getId();
+        speciesMask = species.getMask();
         alive = true;
+        simulator = field.getSimulator();
+        generation = simulator.getGeneration();
+        nextBreedingAge = -1;
+        queueIndex = -1;
+        birthStep = simulator.getSteps();
+        actedStep = birthStep;
+        starveStep = Integer.MAX_VALUE;
+        stream = simulator.getRandomizer().stream(birthStep, location.getRow(), location.getCol());
         this.field = field;
         setLocation(location);
     }
        
     /**
      * Make this animal act - that is: make it do
-     * whatever it wants/needs to do.
+     * whatever it wants/needs to do. Deaths of old age and
+     * hunger are not handled here but scheduled by the simulator.
      * @param newAnimals A list to receive newly born animals.
      */
     abstract public void act(List<Animal> newAnimals);
+    
+    /**
+     * @return The animal's species.
+     */
+    public Species getSpecies()
+    {
+        return Species.get(speciesId);
+    }
+    
+    /**
+     * @return The id of the animal's species; see Species.
+     */
+    public final int getSpeciesId()
+    {
+        return speciesId;
+    }
+    
+    /**
+     * @return The bit of the animal's species in a diet mask.
+     */
+    public final long getSpeciesMask()
+    {
+        return speciesMask;
+    }
+    
+    /**
+     * Check whether the animal belongs to the given simulation alone,
+     * so that the simulation may change it.
+     * @param owner The simulation.
+     * @return true if the animal is not shared with a fork.
+     */
+    protected boolean isOwnedBy(Simulator owner)
+    {
+        return simulator == owner && generation == owner.getGeneration();
+    }
+    
+    /**
+     * Make a copy of this animal that belongs to the given simulation.
+     * @param owner The simulation the copy belongs to, or null for a
+     *              copy that belongs to none, for instance to be sent
+     *              to another process.
+     * @param newLocation The location of the copy in the field of that
+     *                    simulation, or null while it is in none.
+     * @return The copy; it is not yet in the field.
+     */
+    protected Animal copyFor(Simulator owner, Location newLocation)
+    {
+        Animal copy;
+        try {
+            copy = (Animal) clone();
+        }
+        catch(CloneNotSupportedException e) {
+            // Animals are Cloneable.
+            throw new IllegalStateException(e);
+        }
+        copy.simulator = owner;
+        copy.location = newLocation;
+        if(owner != null) {
+            copy.generation = owner.getGeneration();
+            copy.field = owner.getField();
+        }
+        else {
+            copy.field = null;
+        }
+        copy.queueIndex = -1;
+        return copy;
+    }
+    
+    /**
+     * Let the given number of steps pass without the animal growing
+     * older or hungrier, for instance while it migrates.
+     * @param steps The number of steps.
+     */
+    protected void postpone(int steps)
+    {
+        birthStep += steps;
+        if(starveStep != Integer.MAX_VALUE) {
+            starveStep += steps;
+        }
+    }
+    
+    /**
+     * @return The simulation the animal belongs to.
+     */
+    protected Simulator getSimulator()
+    {
+        return simulator;
+    }
+    
+    /**
+     * @return The randomizer of the animal's simulation.
+     */
+    protected Randomizer getRandomizer()
+    {
+        return simulator.getRandomizer();
+    }
+    
+    /**
+     * Return a random word for the given purpose. With common random
+     * numbers it is the given word of the animal's own stream for the
+     * purpose; otherwise it is the next word of the shared buffer.
+     * @param purpose What the word is for, such as Randomizer.BREEDING.
+     * @param index The number of the word within the purpose.
+     * @return A uniformly distributed random word.
+     */
+    protected long randomWord(int purpose, long index)
+    {
+        Randomizer randomizer = simulator.getRandomizer();
+        if(randomizer.isCommonRandomNumbers()) {
+            return Randomizer.word(stream, purpose, index);
+        }
+        return randomizer.getBuffer().nextWord();
+    }
+    
+    /**
+     * Return a random number between 0 (inclusive) and bound (exclusive)
+     * for a purpose that needs only one, such as the initial age.
+     * @param purpose What the number is for, such as Randomizer.AGE.
+     * @param bound The upper bound, which must be positive.
+     * @return The number.
+     */
+    protected int randomInt(int purpose, int bound)
+    {
+        Randomizer randomizer = simulator.getRandomizer();
+        if(randomizer.isCommonRandomNumbers()) {
+            return Randomizer.below(Randomizer.word(stream, purpose, 0), bound);
+        }
+        return randomizer.getRandom().nextInt(bound);
+    }
+    
+    /**
+     * @return The next random word for shuffling adjacent locations.
+     */
+    protected long nextMoveWord()
+    {
+        return randomWord(Randomizer.MOVE, moves++);
+    }
+    
+    /**
+     * @return The next random word for a waiting time in the
+     *         continuous-time engine.
+     */
+    protected long nextActWord()
+    {
+        return randomWord(Randomizer.ACT, acts++);
+    }
+    
+    /**
+     * @return The parameters of the animal's species in its simulation,
+     *         as they are for the current step.
+     */
+    protected SpeciesParameters getParameters()
+    {
+        return simulator.getKernel(speciesId).getParameters();
+    }
+    
+    /**
+     * Return the animal's age, derived from its birth step.
+     * @return The number of steps since the animal was born.
+     */
+    protected int getAge()
+    {
+        return simulator.getSteps() - birthStep;
+    }
+    
+    /**
+     * Set the animal's age as of the current step.
+     * @param age The new age.
+     */
+    protected void setAge(int age)
+    {
+        birthStep = simulator.getSteps() - age;
+    }
+    
+    /**
+     * Return the animal's food level: the number of steps it can
+     * still go without eating.
+     * @return The food level.
+     */
+    protected int getFoodLevel()
+    {
+        return starveStep - simulator.getSteps();
+    }
+    
+    /**
+     * Set the animal's food level as of the current step.
+     * Raising it needs no rescheduling: the timing wheel finds the
+     * later death step when the old one comes up.
+     * @param foodLevel The number of steps the animal can go without eating.
+     */
+    protected void setFoodLevel(int foodLevel)
+    {
+        starveStep = simulator.getSteps() + foodLevel;
+    }
+    
+    /**
+     * Let the animal never starve, as when it needs no food.
+     */
+    protected void clearFoodLevel()
+    {
+        starveStep = Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Return the step in which the animal dies of old age or hunger,
+     * whichever comes first.
+     * @return The death step.
+     */
+    public int getDeathStep()
+    {
+        return Math.min(birthStep + getParameters().getMaxAge() + 1, starveStep);
+    }
+    
+    /**
+     * Return the number of births at the given age when breeding is
+     * scheduled ahead; see Simulator.setScheduledBreeding(). The first
+     * call for an adult draws the age of its next litter; every step
+     * before that costs no random numbers.
+     * Because the geometric distribution is memoryless, a schedule
+     * drawn for an old breeding probability, or one whose age has
+     * passed while the animal could not breed, is simply drawn again
+     * from the current age.
+     * @param age The current age; the animal must be able to breed.
+     * @return The number of births (may be zero).
+     */
+    protected int scheduledBirths(int age)
+    {
+        SpeciesParameters parameters = getParameters();
+        if(nextBreedingAge < age || breedingVersion != parameters.getVersion()) {
+            long trials = Randomizer.geometric(parameters.getBreedingProbability(),
+                                               randomWord(Randomizer.BREEDING_SCHEDULE, age));
+            nextBreedingAge = (int) Math.min(age + trials - 1, Integer.MAX_VALUE);
+            breedingVersion = parameters.getVersion();
+        }
+        if(nextBreedingAge != age) {
+            return 0;
+        }
+        nextBreedingAge = -1;
+        return Randomizer.litterSize(randomWord(Randomizer.BREEDING, age), parameters.getMaxLitterSize());
+    }
+
+    /**
+     * @return The last step in which the animal has acted, or was born.
+     */
+    protected int getActedStep()
+    {
+        return actedStep;
+    }
+    
+    /**
+     * Record that the animal acts in the given step.
+     * @param step The current step.
+     */
+    protected void setActedStep(int step)
+    {
+        actedStep = step;
+    }
+    
+    /**
+     * @return The animal's position in an event queue, or -1 if none.
+     */
+    protected int getQueueIndex()
+    {
+        return queueIndex;
+    }
+    
+    /**
+     * Record the animal's position in an event queue.
+     * @param index The position, or -1 if it is no longer queued.
+     */
+    protected void setQueueIndex(int index)
+    {
+        queueIndex = index;
+    }
 
     /**
      * Check whether the animal is alive or not.
@@ -58,6 +379,34 @@ public abstract class Animal
         }
     }
 
+    /**
+     * Choose a free adjacent location by the scent of some species, as
+     * it was at the start of the step; see Simulator.setScent().
+     * @param species The ids of the species whose scent counts.
+     * @param towards true for the most scent, false for the least.
+     * @return The location, or null if none is free.
+     */
+    protected Location freeLocationByScent(int[] species, boolean towards)
+    {
+        Simulator simulator = getSimulator();
+        Location best = null;
+        float bestScent = 0;
+        for(Location next : field.getFreeAdjacentLocations(location)) {
+            float scent = 0;
+            for(int id : species) {
+                scent += simulator.getScent(id).getScent(next.getRow(), next.getCol());
+            }
+            if(scent < ScentLayer.NOTICED) {
+                scent = 0;
+            }
+            if(best == null || (towards ? scent > bestScent : scent < bestScent)) {
+                best = next;
+                bestScent = scent;
+            }
+        }
+        return best;
+    }
+
     /**
      * Return the animal's location.
      * @return The animal's location.
@@ -1,202 +1,45 @@
-import java.util.List;
-import java.util.Iterator;
-import java.util.Random;
-
 /**
- * A simple model of a fox.
- * Foxes age, move, eat rabbits, and die.
+ * A simple model of a bear.
+ * Bears age, move, eat rabbits and foxes, and die. What they eat and
+ * their life history are in the species table; see Species.
  * 
  * @author David J. Barnes and Michael Kölling
- * @version 2011.07.3a1
+ * @version 2011.07.31
  */
-public class Beer extends Animal
+public class Beer extends Predator
 {
-    // Characteristics shared by all foxes (class variables).
-    
-    // The age at which a beer can start to breed.
-    private static int BREEDING_AGE = 25;
-    // The age to which a beer can live.
-    private static int MAX_AGE = 200;
-    // The likelihood of a beer breeding.
-    private static double BREEDING_PROBABILITY = 0.01;
-    // The maximum number of births.
-    private static int MAX_LITTER_SIZE = 2;
-    // The food value of a single rabbit. In effect, this is the
-    // number of steps a beer can go before it has to eat again.
-    private static final int RABBIT_FOOD_VALUE = 15;
-    private static final int WOLVES_FOOD_VALUE = 50;
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
-    
-    // Individual characteristics (instance fields).
-    // The fox's age.
-    private int age;
-    // The fox's food level, which is increased by eating rabbits.
-    private int foodLevel;
+    private static final long serialVersionUID = 1L;
 
     /**
-     * Create a fox. A fox can be created as a new born (age zero
+     * Create a bear. A bear can be created as a new born (age zero
      * and not hungry) or with a random age and food level.
      * 
-     * @param randomAge If true, the fox will have random age and hunger level.
+     * @param randomAge If true, the bear will have random age and hunger level.
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
     public Beer(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
-            foodLevel = rand.nextInt(RABBIT_FOOD_VALUE);
-        }
-        else {
-            age = 0;
-            foodLevel = RABBIT_FOOD_VALUE;
-        }
-    }
-    
-    /**
-     * This is what the fox does most of the time: it hunts for
-     * rabbits. In the process, it might breed, die of hunger,
-     * or die of old age.
-     * @param field The field currently occupied.
-     * @param newFoxes A list to return newly born foxes.
-     */
-    public void act(List<Animal> newBeer)
-    {
-        incrementAge();
-        incrementHunger();
-        if(isAlive()) {
-            giveBirth(newBeer);            
-            // Move towards a source of food if found.
-            Location newLocation = findFood();
-            if(newLocation == null) { 
-                // No food found - try to move to a free location.
-                newLocation = getField().freeAdjacentLocation(getLocation());
-            }
-            // See if it was possible to move.
-            if(newLocation != null) {
-                setLocation(newLocation);
-            }
-            else {
-                // Overcrowding.
-                setDead();
-            }
-        }
-    }
-
-    /**
-     * Increase the age. This could result in the fox's death.
-     */
-    private void incrementAge()
-    {
-        age++;
-        if(age > MAX_AGE) {
-            setDead();
-        }
-    }
-    
-    /**
-     * Make this fox more hungry. This could result in the fox's death.
-     */
-    private void incrementHunger()
-    {
-        foodLevel--;
-        if(foodLevel <= 0) {
-            setDead();
-        }
+        super(Species.BEER, randomAge, field, location);
     }
     
     /**
-     * Look for rabbits adjacent to the current location.
-     * Only the first live rabbit is eaten.
-     * @return Where food was found, or null if it wasn't.
+     * @return A new set of parameters with the default characteristics
+     *         of bears; see Species.
      */
-    private Location findFood()
+    public static SpeciesParameters createParameters()
     {
-        Field field = getField();
-        List<Location> adjacent = field.adjacentLocations(getLocation());
-        Iterator<Location> it = adjacent.iterator();
-        while(it.hasNext()) {
-            Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if(animal instanceof Rabbit) {
-                Rabbit rabbit = (Rabbit) animal;
-                if(rabbit.isAlive()) { 
-                    rabbit.setDead();
-                    foodLevel = RABBIT_FOOD_VALUE + foodLevel;
-                    // Remove the dead rabbit from the field.
-                    return where;
-                }
-            }
-            if(animal instanceof Fox) {
-                Fox fox = (Fox) animal;
-                if(fox.isAlive()) { 
-                    fox.setDead();
-                    foodLevel = WOLVES_FOOD_VALUE + foodLevel;
-                    // Remove the dead rabbit from the field.
-                    return where;
-                }
-            }
-        }
-        return null;
+        return Species.BEER.createParameters();
     }
     
     /**
-     * Check whether or not this fox is to give birth at this step.
-     * New births will be made into free adjacent locations.
-     * @param newFoxes A list to return newly born foxes.
-     */
-    private void giveBirth(List<Animal> newFoxes)
-    {
-        // New foxes are born into adjacent locations.
-        // Get a list of adjacent free locations.
-        Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
-        for(int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Beer young = new Beer(false, field, loc);
-            newFoxes.add(young);
-        }
-    }
-    
-    public static void setBreedingAge(int newbreedingage){
-    	BREEDING_AGE = newbreedingage;
-    }
-    
-    public static void setMaxAge(int newmaxage){
-    	MAX_AGE = newmaxage;
-    }
-    
-    public static void setBreedingProbability(double newprobability){
-    	BREEDING_PROBABILITY = newprobability;
-    }
-    
-    public static void setMaxLitterSize(int maxlittersize){
-    	MAX_LITTER_SIZE = maxlittersize;
-    }
-    
-        
-    /**
-     * Generate a number representing the number of births,
-     * if it can breed.
-     * @return The number of births (may be zero).
-     */
-    private int breed()
-    {
-        int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
-        }
-        return births;
-    }
-
-    /**
-     * A fox can breed if it has reached the breeding age.
+     * Create a new born bear.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @return The new born.
      */
-    private boolean canBreed()
+    protected Animal newborn(Field field, Location location)
     {
-        return age >= BREEDING_AGE;
+        return new Beer(false, field, location);
     }
 }
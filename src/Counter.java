@@ -1,4 +1,5 @@
-import java.awt.Color;
+import java.io.Serializable;
+
 
 /**
  * Provide a counter for a participant in the simulation.
@@ -9,8 +10,10 @@ import java.awt.Color;
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Counter
+public class Counter implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // A name for this type of simulation participant
     private String name;
     // How many of this type exist in the simulation.
@@ -0,0 +1,49 @@
+/**
+ * A disease that comes back in waves: every period steps it kills each
+ * animal with a given probability. Between the waves it costs nothing.
+ */
+public class DiseaseWave implements Actor
+{
+    // The name of the disease.
+    private String name;
+    // The probability that an animal dies in a wave.
+    private double probability;
+    // The number of steps between two waves, and the step of the first.
+    private int period;
+    private int phase;
+
+    /**
+     * Create a disease.
+     * @param name The name of the disease.
+     * @param probability The probability that an animal dies in a wave.
+     * @param period The number of steps between two waves.
+     * @param phase The step within the period at which a wave comes.
+     */
+    public DiseaseWave(String name, double probability, int period, int phase)
+    {
+        this.name = name;
+        this.probability = probability;
+        this.period = period;
+        this.phase = phase;
+    }
+
+    public int getPeriod()
+    {
+        return period;
+    }
+
+    public int getPhase()
+    {
+        return phase;
+    }
+
+    /**
+     * Let a wave of the disease pass.
+     * @param simulator The simulation.
+     * @param step The step that has just been simulated.
+     */
+    public void act(Simulator simulator, int step)
+    {
+        simulator.infect(probability, name);
+    }
+}
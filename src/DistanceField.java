@@ -0,0 +1,268 @@
+import java.util.Arrays;
+
+/**
+ * The distance from every location of a field to the nearest live
+ * animal of one species, counted in moves to an adjacent location, up
+ * to a limit. It is found once per step by a breadth-first search
+ * from all those animals at once, so that every predator hunting the
+ * species can step towards the nearest one by looking at its adjacent
+ * locations only, instead of each searching the field for itself.
+ *
+ * The distance of a location only depends on the animals within the
+ * limit of it. When the field is brought up to date, only the tiles of
+ * the field in which an animal of the species has come, gone or died
+ * since the last time are searched again, together with the tiles
+ * within the limit of them; the distances at the edge of that region
+ * are taken as they are. A step in which few of the animals have moved
+ * therefore costs little. The search goes around locations blocked by
+ * the terrain, so a distance is the number of moves it takes.
+ */
+public class DistanceField
+{
+    // The distance of a location beyond the limit.
+    public static final int FAR = Integer.MAX_VALUE;
+
+    // The id of the species.
+    private final int speciesId;
+    // The depth and width of the field, and its number of tiles across and down.
+    private int depth, width;
+    private int tilesAcross, tilesDown;
+    // The largest distance kept; further is FAR.
+    private int limit;
+    // The distance of each location, row by row.
+    private int[] distances;
+    // The revision of each tile the distances were found from, or
+    // null if they have not been found yet; see Field.getRevision().
+    private int[] revisions;
+    // The tiles searched again, and the tiles in which animals changed.
+    private boolean[] searched;
+    private boolean[] changed;
+    // The locations still to be searched from, as a list per distance:
+    // the first of each, and the next after each location.
+    private int[] firsts;
+    private int[] nexts;
+
+    /**
+     * Create the distance field of a species; it is empty until it is
+     * first brought up to date.
+     * @param speciesId The id of the species.
+     */
+    public DistanceField(int speciesId)
+    {
+        this.speciesId = speciesId;
+    }
+
+    /**
+     * Bring the distances up to date with the animals in the field.
+     * @param field The field.
+     * @param newLimit The largest distance that is needed.
+     */
+    public void update(Field field, int newLimit)
+    {
+        if(revisions == null || newLimit != limit
+                || field.getDepth() != depth || field.getWidth() != width) {
+            depth = field.getDepth();
+            width = field.getWidth();
+            tilesAcross = (width + Field.TILE_SIZE - 1) >> Field.TILE_BITS;
+            tilesDown = (depth + Field.TILE_SIZE - 1) >> Field.TILE_BITS;
+            limit = newLimit;
+            distances = new int[depth * width];
+            revisions = new int[tilesDown * tilesAcross];
+            searched = new boolean[revisions.length];
+            changed = new boolean[revisions.length];
+            firsts = new int[limit + 1];
+            nexts = new int[distances.length];
+            // Everything has changed.
+            for(int tile = 0; tile < revisions.length; tile++) {
+                revisions[tile] = field.getRevision(tile / tilesAcross, tile % tilesAcross, speciesId) - 1;
+            }
+        }
+
+        boolean any = false;
+        for(int tile = 0; tile < revisions.length; tile++) {
+            int revision = field.getRevision(tile / tilesAcross, tile % tilesAcross, speciesId);
+            changed[tile] = revision != revisions[tile];
+            revisions[tile] = revision;
+            any |= changed[tile];
+        }
+        if(!any) {
+            return;
+        }
+        // Tiles further than this from a changed tile keep their distances.
+        int reach = (limit + Field.TILE_SIZE - 1) >> Field.TILE_BITS;
+        Arrays.fill(searched, false);
+        for(int tile = 0; tile < changed.length; tile++) {
+            if(changed[tile]) {
+                int tileRow = tile / tilesAcross;
+                int tileCol = tile % tilesAcross;
+                for(int tr = Math.max(tileRow - reach, 0); tr <= Math.min(tileRow + reach, tilesDown - 1); tr++) {
+                    for(int tc = Math.max(tileCol - reach, 0); tc <= Math.min(tileCol + reach, tilesAcross - 1); tc++) {
+                        searched[tr * tilesAcross + tc] = true;
+                    }
+                }
+            }
+        }
+        search(field);
+    }
+
+    /**
+     * Search the tiles marked as searched again, from the animals in
+     * them and from the distances just outside them.
+     */
+    private void search(Field field)
+    {
+        Arrays.fill(firsts, -1);
+        for(int tile = 0; tile < searched.length; tile++) {
+            if(!searched[tile]) {
+                continue;
+            }
+            int tileRow = tile / tilesAcross;
+            int tileCol = tile % tilesAcross;
+            int firstRow = tileRow << Field.TILE_BITS;
+            int firstCol = tileCol << Field.TILE_BITS;
+            int endRow = Math.min(firstRow + Field.TILE_SIZE, depth);
+            int endCol = Math.min(firstCol + Field.TILE_SIZE, width);
+            boolean holds = field.getCount(tileRow, tileCol, speciesId) > 0;
+            for(int row = firstRow; row < endRow; row++) {
+                for(int col = firstCol; col < endCol; col++) {
+                    int cell = row * width + col;
+                    distances[cell] = FAR;
+                    if(holds) {
+                        Object occupant = field.getObjectAt(row, col);
+                        if(occupant instanceof Animal && ((Animal) occupant).getSpeciesId() == speciesId
+                                && ((Animal) occupant).isAlive()) {
+                            distances[cell] = 0;
+                            push(cell, 0);
+                        }
+                    }
+                }
+            }
+        }
+        // The locations just outside the region keep their distances,
+        // and are searched from as they are.
+        for(int tile = 0; tile < searched.length; tile++) {
+            if(searched[tile] || !bordersSearched(tile)) {
+                continue;
+            }
+            int firstRow = (tile / tilesAcross) << Field.TILE_BITS;
+            int firstCol = (tile % tilesAcross) << Field.TILE_BITS;
+            int endRow = Math.min(firstRow + Field.TILE_SIZE, depth);
+            int endCol = Math.min(firstCol + Field.TILE_SIZE, width);
+            for(int row = firstRow; row < endRow; row++) {
+                for(int col = firstCol; col < endCol; col++) {
+                    int distance = distances[row * width + col];
+                    if(distance < limit && touchesSearched(row, col)) {
+                        push(row * width + col, distance);
+                    }
+                }
+            }
+        }
+
+        for(int distance = 0; distance < limit; distance++) {
+            int cell = firsts[distance];
+            firsts[distance] = -1;
+            while(cell >= 0) {
+                int next = nexts[cell];
+                if(distances[cell] == distance) {
+                    spread(field, cell, distance + 1);
+                }
+                cell = next;
+            }
+        }
+    }
+
+    /**
+     * Give the searched locations adjacent to a cell the given
+     * distance, where it is shorter than the one they have.
+     */
+    private void spread(Field field, int cell, int distance)
+    {
+        int row = cell / width;
+        int col = cell % width;
+        int mask = field.getNeighbours(row, col);
+        for(int k = 0; k < Field.ROW_OFFSETS.length; k++) {
+            if((mask & (1 << k)) != 0) {
+                int r = row + Field.ROW_OFFSETS[k];
+                int c = col + Field.COL_OFFSETS[k];
+                int adjacent = r * width + c;
+                if(distances[adjacent] > distance && isSearched(r, c)) {
+                    distances[adjacent] = distance;
+                    if(distance < limit) {
+                        push(adjacent, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a location to the list of the given distance.
+     */
+    private void push(int cell, int distance)
+    {
+        nexts[cell] = firsts[distance];
+        firsts[distance] = cell;
+    }
+
+    /**
+     * @return true if a tile adjacent to the given one is searched again.
+     */
+    private boolean bordersSearched(int tile)
+    {
+        int tileRow = tile / tilesAcross;
+        int tileCol = tile % tilesAcross;
+        for(int tr = Math.max(tileRow - 1, 0); tr <= Math.min(tileRow + 1, tilesDown - 1); tr++) {
+            for(int tc = Math.max(tileCol - 1, 0); tc <= Math.min(tileCol + 1, tilesAcross - 1); tc++) {
+                if(searched[tr * tilesAcross + tc]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a location adjacent to the given one is in a tile
+     *         that is searched again.
+     */
+    private boolean touchesSearched(int row, int col)
+    {
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                if(isSearched(r, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the location is in a tile that is searched again.
+     */
+    private boolean isSearched(int row, int col)
+    {
+        return searched[(row >> Field.TILE_BITS) * tilesAcross + (col >> Field.TILE_BITS)];
+    }
+
+    /**
+     * Return the distance from a location to the nearest animal of the
+     * species as it was when the field was last brought up to date.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The distance, 0 at an animal itself, or FAR if there is
+     *         none within the limit.
+     */
+    public int getDistance(int row, int col)
+    {
+        return distances[row * width + col];
+    }
+
+    /**
+     * @return The largest distance kept.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.PrintStream;
+
+/**
+ * An observer that chooses the data structures of a running simulation
+ * as it changes: how the field is stored, and for a simulation in
+ * spatial order, how that order is found. Neither choice changes the
+ * results, so switching in the middle of a run is safe.
+ *
+ * Every WINDOW steps the selector measures the time per animal per
+ * step and the occupancy of the field. A field is stored densely when
+ * it is more crowded than one threshold and in tiles when it is
+ * emptier than another, and the spatial order is found by sorting the
+ * animals when the field is nearly empty and by walking it otherwise;
+ * see Field.setDense() and Simulator.setSortedOrder(). The gaps
+ * between the thresholds keep the selector from switching back and
+ * forth. At most one switch is made per window, and its effect is
+ * measured over the next window: a switch that makes the steps
+ * costlier per animal is undone and not tried again for a while.
+ *
+ * Every switch and its effect is logged, to help tune the thresholds.
+ */
+public class EngineSelector implements SimulatorObserver
+{
+    // The number of steps over which the cost is measured.
+    private static final int WINDOW = 20;
+    // How much costlier steps may become before a switch is undone.
+    private static final double TOLERANCE = 1.2;
+    // The number of steps before a switch that was undone is tried again.
+    private static final int BACKOFF = 500;
+
+    // The simulation.
+    private Simulator simulator;
+    // Where switches are logged.
+    private PrintStream log;
+    // Store the field densely above this occupancy, in tiles below the next.
+    private double denseAbove;
+    private double tilesBelow;
+    // Sort the animals below this occupancy, walk the field above the next.
+    private double sortBelow;
+    private double walkAbove;
+    // The time of the last step, in nanoseconds, or 0 before the first.
+    private long lastTime;
+    // The time and the number of steps measured in the current window.
+    private long elapsed;
+    private int steps;
+    // The population at the start of the current window.
+    private int startPopulation;
+    // The switch made at the end of the last window and its cost
+    // before, while its effect is being measured; otherwise null.
+    private String judged;
+    private double costBefore;
+    // The steps until which the storage and the order are not switched.
+    private int storageHeld;
+    private int orderHeld;
+
+    /**
+     * Create a selector with the default thresholds: dense above 2%
+     * occupancy, tiles below 0.5%, sorting below 1% and walking above 2%.
+     * @param simulator The simulation to choose for.
+     * @param log Where to log switches.
+     */
+    public EngineSelector(Simulator simulator, PrintStream log)
+    {
+        this(simulator, log, 0.02, 0.005, 0.01, 0.02);
+    }
+
+    /**
+     * Create a selector.
+     * @param simulator The simulation to choose for.
+     * @param log Where to log switches.
+     * @param denseAbove Store the field densely above this occupancy.
+     * @param tilesBelow Store the field in tiles below this occupancy.
+     * @param sortBelow Sort the animals below this occupancy.
+     * @param walkAbove Walk the field above this occupancy.
+     */
+    public EngineSelector(Simulator simulator, PrintStream log,
+                          double denseAbove, double tilesBelow, double sortBelow, double walkAbove)
+    {
+        this.simulator = simulator;
+        this.log = log;
+        this.denseAbove = denseAbove;
+        this.tilesBelow = tilesBelow;
+        this.sortBelow = sortBelow;
+        this.walkAbove = walkAbove;
+        startPopulation = -1;
+    }
+
+    /**
+     * Measure a step, and at the end of a window judge the last switch
+     * or choose the next one.
+     * @param step Which iteration step it is.
+     * @param field The field of the simulation.
+     */
+    public void showStatus(int step, Field field)
+    {
+        long now = System.nanoTime();
+        if(lastTime != 0) {
+            elapsed += now - lastTime;
+            steps++;
+        }
+        lastTime = now;
+        if(startPopulation < 0) {
+            startPopulation = population();
+        }
+        if(steps < WINDOW) {
+            return;
+        }
+
+        int endPopulation = population();
+        double occupancy = endPopulation / (double) (field.getDepth() * field.getWidth());
+        // Nanoseconds per animal per step, over the average population.
+        double cost = elapsed / (double) steps / Math.max((startPopulation + endPopulation) / 2.0, 1);
+        if(judged != null) {
+            log.printf("step %d: %s changed the cost from %.1f to %.1f ns per animal step%n",
+                       step, judged, costBefore, cost);
+            if(cost > costBefore * TOLERANCE) {
+                undo(step);
+            }
+            judged = null;
+        }
+        else {
+            choose(step, field, occupancy, cost);
+        }
+        elapsed = 0;
+        steps = 0;
+        startPopulation = endPopulation;
+        // Leave out the time taken by a switch.
+        lastTime = System.nanoTime();
+    }
+
+    /**
+     * Make at most one switch that the occupancy calls for.
+     */
+    private void choose(int step, Field field, double occupancy, double cost)
+    {
+        String change = null;
+        long start = System.nanoTime();
+        if(step >= storageHeld && !field.isDense() && occupancy > denseAbove) {
+            field.setDense(true);
+            change = "storage tiles -> dense";
+        }
+        else if(step >= storageHeld && field.isDense() && occupancy < tilesBelow) {
+            field.setDense(false);
+            change = "storage dense -> tiles";
+        }
+        else if(step >= orderHeld && simulator.isSpatialOrder() && !simulator.isSortedOrder()
+                && occupancy < sortBelow) {
+            simulator.setSortedOrder(true);
+            change = "order walk -> sort";
+        }
+        else if(step >= orderHeld && simulator.isSortedOrder() && occupancy > walkAbove) {
+            simulator.setSortedOrder(false);
+            change = "order sort -> walk";
+        }
+        if(change != null) {
+            log.printf("step %d: %s at occupancy %.2f%%, %.1f ns per animal step, switch took %.1f ms%n",
+                       step, change, occupancy * 100, cost, (System.nanoTime() - start) / 1e6);
+            judged = change;
+            costBefore = cost;
+        }
+    }
+
+    /**
+     * Undo the switch being judged, and hold off trying it again.
+     */
+    private void undo(int step)
+    {
+        if(judged.startsWith("storage")) {
+            Field field = simulator.getField();
+            field.setDense(!field.isDense());
+            storageHeld = step + BACKOFF;
+        }
+        else {
+            simulator.setSortedOrder(!simulator.isSortedOrder());
+            orderHeld = step + BACKOFF;
+        }
+        log.printf("step %d: undid %s until step %d%n", step, judged, step + BACKOFF);
+    }
+
+    /**
+     * @return The number of live animals.
+     */
+    private int population()
+    {
+        FieldStats stats = simulator.getStats();
+        int total = 0;
+        for(Class animalClass : simulator.getSpecies()) {
+            total += stats.getCount(animalClass);
+        }
+        return total;
+    }
+}
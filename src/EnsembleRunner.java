@@ -0,0 +1,226 @@
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run many replicas of one configuration with different seeds, in
+ * parallel on a fixed number of threads, and gather the mean, variance
+ * and quantiles of every species' population at every step.
+ * 
+ * The population series of the replicas are merged into
+ * RunningStatistics in replica order, each as soon as it and those
+ * before it have finished, so memory grows with the number of steps and
+ * threads but not with the number of replicas. The quantile estimates
+ * depend on the order in which values are added, so merging in replica
+ * order keeps the output the same from run to run for the same seeds,
+ * whatever the number of threads. Merging is done by the thread that
+ * hands out the replicas, so it needs no locking.
+ * 
+ * Optionally the runner stops once the 95% confidence interval of
+ * every mean is narrower than a target width; the replicas still
+ * running then are not merged.
+ */
+public class EnsembleRunner
+{
+    // The smallest number of replicas before stopping early.
+    private static final int MIN_REPLICAS = 10;
+    
+    // The configuration of every replica, apart from its seed.
+    private RunConfiguration configuration;
+    // The maximum number of replicas.
+    private int replicas;
+    // The number of replicas run at the same time.
+    private int threads;
+    // The confidence interval width to stop at, or 0 to run all replicas.
+    private double targetWidth;
+    // The species, in column order.
+    private List<Class> species;
+    // The statistics of each species at each step.
+    private List<RunningStatistics[]> statistics;
+    // The number of replicas merged so far.
+    private int completed;
+
+    /**
+     * Create an ensemble runner.
+     * @param configuration The configuration; replica i uses its seed plus i.
+     * @param replicas The maximum number of replicas.
+     * @param threads The number of replicas run at the same time.
+     * @param targetWidth The confidence interval width to stop at, or 0
+     *                    to run all replicas.
+     */
+    public EnsembleRunner(RunConfiguration configuration, int replicas, int threads, double targetWidth)
+    {
+        this.configuration = configuration;
+        this.replicas = replicas;
+        this.threads = threads;
+        this.targetWidth = targetWidth;
+        statistics = new ArrayList<RunningStatistics[]>();
+        completed = 0;
+    }
+    
+    /**
+     * Run the replicas and wait for them to finish.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws ExecutionException If a replica failed.
+     */
+    public void run() throws InterruptedException, ExecutionException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // The replicas started and not yet merged, in replica order.
+        LinkedList<Future<PopulationSeries>> running = new LinkedList<Future<PopulationSeries>>();
+        try {
+            int submitted = 0;
+            while(submitted < replicas && running.size() < threads) {
+                running.add(pool.submit(replica(submitted++)));
+            }
+            while(!running.isEmpty()) {
+                // Replicas that finish early wait for those before them.
+                merge(running.removeFirst().get());
+                if(isPrecise()) {
+                    break;
+                }
+                if(submitted < replicas) {
+                    running.add(pool.submit(replica(submitted++)));
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * @return The number of replicas that have been run.
+     */
+    public int getCompleted()
+    {
+        return completed;
+    }
+    
+    /**
+     * @return true if enough replicas have been run for every confidence
+     *         interval to be narrower than the target width.
+     */
+    public boolean isPrecise()
+    {
+        if(targetWidth <= 0 || completed < MIN_REPLICAS) {
+            return false;
+        }
+        for(RunningStatistics[] step : statistics) {
+            for(RunningStatistics stats : step) {
+                if(stats.getConfidenceWidth() > targetWidth) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Write the statistics as comma-separated values, one line per
+     * step and species.
+     * @param out Where to write.
+     */
+    public void write(PrintStream out)
+    {
+        StringBuilder line = new StringBuilder("step,species,n,mean,variance");
+        for(double quantile : RunningStatistics.QUANTILES) {
+            line.append(",q").append(quantile);
+        }
+        out.println(line);
+        for(int row = 0; row < statistics.size(); row++) {
+            RunningStatistics[] step = statistics.get(row);
+            for(int i = 0; i < step.length; i++) {
+                line.setLength(0);
+                line.append(row).append(',').append(species.get(i).getName());
+                line.append(',').append(step[i].getCount());
+                line.append(',').append(step[i].getMean());
+                line.append(',').append(step[i].getVariance());
+                for(int q = 0; q < RunningStatistics.QUANTILES.length; q++) {
+                    line.append(',').append(step[i].getQuantile(q));
+                }
+                out.println(line);
+            }
+        }
+    }
+    
+    /**
+     * Create the task that runs one replica.
+     * @param index The number of the replica.
+     */
+    private Callable<PopulationSeries> replica(int index)
+    {
+        final RunConfiguration replica = configuration.withSeed(configuration.getSeed() + index);
+        return new Callable<PopulationSeries>() {
+            public PopulationSeries call()
+            {
+                Simulator simulator = replica.createSimulator();
+                PopulationSeries series = new PopulationSeries(simulator.getSpecies());
+                simulator.addObserver(series);
+                simulator.notifyObservers();
+                replica.run(simulator);
+                return series;
+            }
+        };
+    }
+    
+    /**
+     * Add the population series of a replica to the statistics.
+     * A replica that stopped early only counts for the steps it ran.
+     */
+    private void merge(PopulationSeries series)
+    {
+        if(species == null) {
+            species = series.getSpecies();
+        }
+        for(int row = 0; row < series.size(); row++) {
+            if(row == statistics.size()) {
+                RunningStatistics[] step = new RunningStatistics[species.size()];
+                for(int i = 0; i < step.length; i++) {
+                    step[i] = new RunningStatistics();
+                }
+                statistics.add(step);
+            }
+            RunningStatistics[] step = statistics.get(row);
+            for(int i = 0; i < step.length; i++) {
+                step[i].add(series.getCount(row, i));
+            }
+        }
+        completed++;
+    }
+    
+    /**
+     * Run an ensemble from the command line. The arguments are those of
+     * HeadlessRunner plus replicas=N (default 100), threads=N (default
+     * one per core) and ciWidth=W to stop early.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        int replicas = Integer.parseInt(configuration.getOption("replicas", "100"));
+        int threads = Integer.parseInt(configuration.getOption("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        double width = Double.parseDouble(configuration.getOption("ciWidth", "0"));
+        
+        long start = System.nanoTime();
+        EnsembleRunner ensemble = new EnsembleRunner(configuration, replicas, threads, width);
+        ensemble.run();
+        
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        ensemble.write(out);
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        System.err.println("Replicas: " + ensemble.getCompleted() + ", seconds: " + (System.nanoTime() - start) / 1e9);
+    }
+}
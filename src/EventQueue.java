@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An indexed priority queue of animals, ordered by the time of each
+ * animal's next event. Every animal records its own position in the
+ * heap, so its event can be moved or removed in logarithmic time
+ * without searching.
+ * 
+ * An animal's next event is either its next action or its death of
+ * old age or hunger, whichever comes first. An animal due to die in
+ * step d dies at time d - 1, the start of that step, so that, as in
+ * the stepped simulation, it no longer acts in step d.
+ */
+public class EventQueue
+{
+    // The queued animals, as a binary heap.
+    private Animal[] heap;
+    // The event time of each heap entry.
+    private double[] times;
+    // The time of the next action of each heap entry.
+    private double[] actTimes;
+    // The number of queued animals.
+    private int size;
+
+    /**
+     * Create an empty queue.
+     */
+    public EventQueue()
+    {
+        heap = new Animal[16];
+        times = new double[16];
+        actTimes = new double[16];
+        size = 0;
+    }
+    
+    /**
+     * @return true if no animals are queued.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    /**
+     * @return The animal with the earliest event.
+     */
+    public Animal peek()
+    {
+        return heap[0];
+    }
+    
+    /**
+     * @return The time of the earliest event.
+     */
+    public double peekTime()
+    {
+        return times[0];
+    }
+    
+    /**
+     * @return true if the earliest event is a death rather than an action.
+     */
+    public boolean peekIsDeath()
+    {
+        return times[0] < actTimes[0];
+    }
+    
+    /**
+     * Add an animal to the queue.
+     * @param animal The animal, which must not be queued yet.
+     * @param actTime The time of its next action.
+     */
+    public void add(Animal animal, double actTime)
+    {
+        if(size == heap.length) {
+            int capacity = size * 2;
+            Animal[] newHeap = new Animal[capacity];
+            double[] newTimes = new double[capacity];
+            double[] newActTimes = new double[capacity];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            System.arraycopy(times, 0, newTimes, 0, size);
+            System.arraycopy(actTimes, 0, newActTimes, 0, size);
+            heap = newHeap;
+            times = newTimes;
+            actTimes = newActTimes;
+        }
+        int index = size++;
+        heap[index] = animal;
+        actTimes[index] = actTime;
+        times[index] = eventTime(animal, actTime);
+        animal.setQueueIndex(index);
+        siftUp(index);
+    }
+    
+    /**
+     * Give a queued animal a new action time, and pick up any change
+     * in its death step.
+     * @param animal The queued animal.
+     * @param actTime The time of its next action.
+     */
+    public void update(Animal animal, double actTime)
+    {
+        int index = animal.getQueueIndex();
+        actTimes[index] = actTime;
+        times[index] = eventTime(animal, actTime);
+        siftDown(siftUp(index));
+    }
+    
+    /**
+     * Remove an animal from the queue, if it is queued.
+     * @param animal The animal to remove.
+     */
+    public void remove(Animal animal)
+    {
+        int index = animal.getQueueIndex();
+        if(index < 0) {
+            return;
+        }
+        animal.setQueueIndex(-1);
+        size--;
+        if(index < size) {
+            move(size, index);
+            siftDown(siftUp(index));
+        }
+        heap[size] = null;
+    }
+    
+    /**
+     * Recompute the event time of every queued animal, for instance
+     * after a maximum age has been changed.
+     */
+    public void rekey()
+    {
+        for(int i = 0; i < size; i++) {
+            times[i] = eventTime(heap[i], actTimes[i]);
+        }
+        for(int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+    
+    /**
+     * @return A list of all queued animals.
+     */
+    public List<Animal> getAnimals()
+    {
+        List<Animal> animals = new ArrayList<Animal>(size);
+        for(int i = 0; i < size; i++) {
+            animals.add(heap[i]);
+        }
+        return animals;
+    }
+    
+    /**
+     * Remove all animals from the queue.
+     */
+    public void clear()
+    {
+        for(int i = 0; i < size; i++) {
+            heap[i].setQueueIndex(-1);
+            heap[i] = null;
+        }
+        size = 0;
+    }
+    
+    /**
+     * @return The time of the animal's next event.
+     */
+    private static double eventTime(Animal animal, double actTime)
+    {
+        return Math.min(actTime, animal.getDeathStep() - 1.0);
+    }
+    
+    /**
+     * Move an entry up the heap until its parent is earlier.
+     * @return The entry's new index.
+     */
+    private int siftUp(int index)
+    {
+        while(index > 0) {
+            int parent = (index - 1) / 2;
+            if(times[parent] <= times[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+        return index;
+    }
+    
+    /**
+     * Move an entry down the heap until its children are later.
+     */
+    private void siftDown(int index)
+    {
+        while(true) {
+            int child = 2 * index + 1;
+            if(child >= size) {
+                return;
+            }
+            if(child + 1 < size && times[child + 1] < times[child]) {
+                child++;
+            }
+            if(times[index] <= times[child]) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+    
+    /**
+     * Swap two heap entries.
+     */
+    private void swap(int i, int j)
+    {
+        Animal animal = heap[i];
+        double time = times[i];
+        double actTime = actTimes[i];
+        move(j, i);
+        heap[j] = animal;
+        times[j] = time;
+        actTimes[j] = actTime;
+        animal.setQueueIndex(j);
+    }
+    
+    /**
+     * Copy the heap entry at from over the one at to.
+     */
+    private void move(int from, int to)
+    {
+        heap[to] = heap[from];
+        times[to] = times[from];
+        actTimes[to] = actTimes[from];
+        heap[to].setQueueIndex(to);
+    }
+}
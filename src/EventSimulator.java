@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A continuous-time engine for the simulation, as an alternative to
+ * stepping every animal in Simulator.simulateOneStep. It is a
+ * next-reaction method: every animal acts at the times of a Poisson
+ * process with one action per step on average, and dies of old age or
+ * hunger at the start of the step it is due to die in. All pending
+ * events are kept in an EventQueue, so the cost of a step depends on
+ * the number of events in it rather than on the size of the field.
+ * 
+ * An action is the same act() as in the stepped simulation, so breeding
+ * happens at rate BREEDING_PROBABILITY per step. An action only changes
+ * the actor's neighbourhood, so after each one only the actor, its
+ * neighbours and its young are rescheduled.
+ * 
+ * Step n covers the time interval [n - 1, n), and Simulator.getSteps()
+ * must return n while events in that interval are run, since animal
+ * ages are measured in whole steps.
+ */
+public class EventSimulator
+{
+    // The simulation the engine runs.
+    private Simulator simulator;
+    // The field the animals live in.
+    private Field field;
+    // The next event of every live animal.
+    private EventQueue queue;
+    // The parameter version the queue was keyed for.
+    private int deathScheduleVersion;
+
+    /**
+     * Create an engine for the given animals, starting at the given time.
+     * @param field The field the animals live in.
+     * @param animals The animals; dead ones are ignored.
+     * @param time The current time.
+     */
+    public EventSimulator(Field field, List<Animal> animals, double time)
+    {
+        this.field = field;
+        simulator = field.getSimulator();
+        queue = new EventQueue();
+        for(Animal animal : animals) {
+            if(animal.isAlive()) {
+                queue.add(animal, time + Randomizer.exponential(1.0, animal.nextActWord()));
+            }
+        }
+        deathScheduleVersion = simulator.getParameterVersion();
+    }
+    
+    /**
+     * Run all events up to, but not including, the given time. Animals
+     * killed outside the engine since the last run are dropped when
+     * their event comes.
+     * @param endTime The time to stop at.
+     */
+    public void runUntil(double endTime)
+    {
+        if(deathScheduleVersion != simulator.getParameterVersion()) {
+            deathScheduleVersion = simulator.getParameterVersion();
+            queue.rekey();
+        }
+        List<Animal> newAnimals = new ArrayList<Animal>();
+        Animal[] neighbours = new Animal[8];
+        while(!queue.isEmpty() && queue.peekTime() < endTime) {
+            double time = queue.peekTime();
+            Animal animal = queue.peek();
+            if(!animal.isAlive()) {
+                // Killed between events, for instance by an Actor.
+                queue.remove(animal);
+                continue;
+            }
+            if(queue.peekIsDeath()) {
+                queue.remove(animal);
+                animal.setDead();
+                continue;
+            }
+            
+            int count = collectNeighbours(animal.getLocation(), neighbours);
+            animal.act(newAnimals);
+            // Only the neighbours can have been eaten.
+            for(int i = 0; i < count; i++) {
+                if(!neighbours[i].isAlive()) {
+                    queue.remove(neighbours[i]);
+                }
+            }
+            if(animal.isAlive()) {
+                queue.update(animal, time + Randomizer.exponential(1.0, animal.nextActWord()));
+            }
+            else {
+                queue.remove(animal);
+            }
+            for(Animal young : newAnimals) {
+                queue.add(young, time + Randomizer.exponential(1.0, young.nextActWord()));
+            }
+            newAnimals.clear();
+        }
+    }
+    
+    /**
+     * @return All animals that are still alive.
+     */
+    public List<Animal> getAnimals()
+    {
+        List<Animal> animals = queue.getAnimals();
+        for(Iterator<Animal> it = animals.iterator(); it.hasNext(); ) {
+            if(!it.next().isAlive()) {
+                it.remove();
+            }
+        }
+        return animals;
+    }
+    
+    /**
+     * Collect the animals adjacent to a location.
+     * @param location The location.
+     * @param neighbours An array to receive the animals.
+     * @return The number of animals found.
+     */
+    private int collectNeighbours(Location location, Animal[] neighbours)
+    {
+        int count = 0;
+        int row = location.getRow();
+        int col = location.getCol();
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, field.getDepth() - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, field.getWidth() - 1); c++) {
+                Object object = field.getObjectAt(r, c);
+                if(object instanceof Animal && (r != row || c != col)) {
+                    neighbours[count++] = (Animal) object;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -1,57 +1,272 @@
-import java.util.Collections;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Represent a rectangular grid of field positions.
  * Each position is able to store a single animal.
  * 
+ * The grid is stored in square tiles, so that a field can be forked
+ * cheaply: the fork shares all tiles with the original, and a tile is
+ * only copied when one of the two first writes to it. Tiles are only
+ * created when something is placed in them, so a large field of which
+ * only a part is used, such as a strip of a landscape, takes little
+ * memory. A crowded field can instead be stored densely, in one array,
+ * which saves looking up the tile; see setDense().
+ * 
+ * The field also counts the animals of each species in each tile, so
+ * that the nearest animal of some species can be found by looking
+ * into the tiles that hold one only; see findNearest(). It also
+ * counts the changes to those animals per tile, so that a layer
+ * derived from them, such as a DistanceField, can tell which tiles to
+ * bring up to date.
+ * 
+ * Some locations may be blocked by the terrain; see setTerrain(). For
+ * every location the field keeps which of its adjacent locations lie
+ * within the field and are not blocked, so that adjacentLocations(),
+ * and all that is built on it, such as moving and giving birth, never
+ * offers a blocked location, without checking for one.
+ * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Field
+public class Field implements Serializable
 {
-    // A random number generator for providing random locations.
-    private static final Random rand = Randomizer.getRandom();
+    private static final long serialVersionUID = 1L;
+
+    // n! for every number of neighbours a location can have.
+    private static final long[] FACTORIALS = {1, 1, 2, 6, 24, 120, 720, 5040, 40320};
+    // The number of bits of a row or column within a tile.
+    static final int TILE_BITS = 3;
+    // The width and depth of a tile.
+    static final int TILE_SIZE = 1 << TILE_BITS;
+    // The row and column offset of each adjacent location, by its bit
+    // in a neighbour mask, in the order of rows and then columns.
+    static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
     
+    // The simulation the field belongs to.
+    private Simulator simulator;
     // The depth and width of the field.
     private int depth, width;
-    // Storage for the animals.
-    private Object[][] field;
+    // The number of tiles across the field.
+    private int tilesAcross;
+    // Storage for the animals, one array per tile, or null for a tile
+    // in which nothing has been placed.
+    private Object[][] tiles;
+    // Whether each tile belongs to this field alone and may be written.
+    private boolean[] owned;
+    // Storage for the animals row by row while the field is dense,
+    // when tiles and owned are null; otherwise null.
+    private Object[] cells;
+    // The number of species, and the number of animals of each species
+    // in each tile, by tile and then by species id.
+    private int speciesCount;
+    private int[] counts;
+    // The number of times the animals of each species in each tile
+    // have changed, indexed as counts.
+    private int[] revisions;
+    // The locations no animal can enter, or null if there are none.
+    private Terrain terrain;
+    // For each location, row by row, one bit per adjacent location
+    // that is in the field and not blocked; see ROW_OFFSETS.
+    private byte[] neighbours;
 
     /**
      * Represent a field of the given dimensions.
      * @param depth The depth of the field.
      * @param width The width of the field.
+     * @param simulator The simulation the field belongs to.
      */
-    public Field(int depth, int width)
+    public Field(int depth, int width, Simulator simulator)
     {
+        this.simulator = simulator;
         this.depth = depth;
         this.width = width;
-        field = new Object[depth][width];
+        tilesAcross = (width + TILE_SIZE - 1) >> TILE_BITS;
+        tiles = new Object[((depth + TILE_SIZE - 1) >> TILE_BITS) * tilesAcross][];
+        owned = new boolean[tiles.length];
+        speciesCount = Species.all().size();
+        counts = new int[tiles.length * speciesCount];
+        revisions = new int[counts.length];
+        buildNeighbours();
+        clear();
     }
     
     /**
-     * Empty the field.
+     * Create a fork of this field for another simulation. The two
+     * fields share their tiles until either writes to one. A dense
+     * field is stored in tiles first.
+     * @param branch The simulation the fork belongs to.
+     * @return The fork.
      */
-    public void clear()
+    public Field fork(Simulator branch)
+    {
+        setDense(false);
+        Field fork = new Field(0, 0, branch);
+        fork.depth = depth;
+        fork.width = width;
+        fork.tilesAcross = tilesAcross;
+        fork.tiles = tiles.clone();
+        fork.owned = new boolean[tiles.length];
+        fork.counts = counts.clone();
+        fork.revisions = revisions.clone();
+        // The terrain never changes, so the fork can share it.
+        fork.terrain = terrain;
+        fork.neighbours = neighbours;
+        for(int i = 0; i < owned.length; i++) {
+            owned[i] = false;
+        }
+        return fork;
+    }
+    
+    /**
+     * Choose how the grid is stored: densely in one array, or in tiles
+     * that are only created when something is placed in them. Dense is
+     * quicker when most tiles are in use; tiles take less memory when
+     * few are. The animals stay where they are.
+     * @param dense true to store the grid densely.
+     */
+    public void setDense(boolean dense)
+    {
+        if(dense == isDense()) {
+            return;
+        }
+        if(dense) {
+            Object[] all = new Object[depth * width];
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    all[row * width + col] = getObjectAt(row, col);
+                }
+            }
+            cells = all;
+            tiles = null;
+            owned = null;
+        }
+        else {
+            Object[] all = cells;
+            cells = null;
+            tiles = new Object[((depth + TILE_SIZE - 1) >> TILE_BITS) * tilesAcross][];
+            owned = new boolean[tiles.length];
+            clear();
+            for(int i = 0; i < all.length; i++) {
+                if(all[i] != null) {
+                    place(all[i], i / width, i % width);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Block the locations of the given terrain, which must be empty, and
+     * open all others. Layers derived from the field see every tile as
+     * changed.
+     * @param newTerrain The terrain, or null to open every location.
+     * @throws IllegalArgumentException If the terrain does not fit the field.
+     */
+    public void setTerrain(Terrain newTerrain)
+    {
+        if(newTerrain != null && (newTerrain.getDepth() != depth || newTerrain.getWidth() != width)) {
+            throw new IllegalArgumentException("A terrain of " + newTerrain.getDepth() + " by "
+                                               + newTerrain.getWidth() + " for a field of "
+                                               + depth + " by " + width);
+        }
+        terrain = newTerrain;
+        buildNeighbours();
+        for(int i = 0; i < revisions.length; i++) {
+            revisions[i]++;
+        }
+    }
+    
+    /**
+     * @return The terrain, or null if no location is blocked.
+     */
+    public Terrain getTerrain()
+    {
+        return terrain;
+    }
+    
+    /**
+     * @param row The row of a location.
+     * @param col The column of the location.
+     * @return true if no animal can enter the location.
+     */
+    public boolean isBlocked(int row, int col)
+    {
+        return terrain != null && terrain.isBlocked(row, col);
+    }
+    
+    /**
+     * Return which of the locations adjacent to a location are in the
+     * field and not blocked.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return One bit per adjacent location, by its index in ROW_OFFSETS.
+     */
+    public int getNeighbours(int row, int col)
     {
+        return neighbours[row * width + col] & 0xFF;
+    }
+    
+    /**
+     * Work out the adjacent locations of every location.
+     */
+    private void buildNeighbours()
+    {
+        neighbours = new byte[depth * width];
         for(int row = 0; row < depth; row++) {
             for(int col = 0; col < width; col++) {
-                field[row][col] = null;
+                int mask = 0;
+                for(int k = 0; k < ROW_OFFSETS.length; k++) {
+                    int nextRow = row + ROW_OFFSETS[k];
+                    int nextCol = col + COL_OFFSETS[k];
+                    if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width
+                            && !isBlocked(nextRow, nextCol)) {
+                        mask |= 1 << k;
+                    }
+                }
+                neighbours[row * width + col] = (byte) mask;
             }
         }
     }
     
+    /**
+     * @return true if the grid is stored densely.
+     */
+    public boolean isDense()
+    {
+        return cells != null;
+    }
+    
+    /**
+     * Empty the field.
+     */
+    public void clear()
+    {
+        Arrays.fill(counts, 0);
+        for(int i = 0; i < revisions.length; i++) {
+            revisions[i]++;
+        }
+        if(cells != null) {
+            Arrays.fill(cells, null);
+            return;
+        }
+        for(int i = 0; i < tiles.length; i++) {
+            tiles[i] = null;
+            owned[i] = true;
+        }
+    }
+    
     /**
      * Clear the given location.
      * @param location The location to clear.
      */
     public void clear(Location location)
     {
-        field[location.getRow()][location.getCol()] = null;
+        place(null, location);
     }
     
     /**
@@ -76,7 +291,31 @@ public class Field
      */
     public void place(Object animal, Location location)
     {
-        field[location.getRow()][location.getCol()] = animal;
+        int row = location.getRow();
+        int col = location.getCol();
+        int tile = tileIndex(row, col);
+        Object previous = getObjectAt(row, col);
+        if(previous != animal) {
+            count(previous, tile, -1);
+            count(animal, tile, 1);
+        }
+        if(cells != null) {
+            cells[row * width + col] = animal;
+            return;
+        }
+        if(tiles[tile] == null) {
+            if(animal == null) {
+                return;
+            }
+            tiles[tile] = new Object[TILE_SIZE * TILE_SIZE];
+            owned[tile] = true;
+        }
+        else if(!owned[tile]) {
+            // The tile is shared with a fork; copy it before writing.
+            tiles[tile] = tiles[tile].clone();
+            owned[tile] = true;
+        }
+        tiles[tile][cellIndex(row, col)] = animal;
     }
     
     /**
@@ -97,7 +336,143 @@ public class Field
      */
     public Object getObjectAt(int row, int col)
     {
-        return field[row][col];
+        if(cells != null) {
+            return cells[row * width + col];
+        }
+        Object[] tile = tiles[tileIndex(row, col)];
+        return tile != null ? tile[cellIndex(row, col)] : null;
+    }
+    
+    /**
+     * Find the nearest animal of the given species within a radius,
+     * counted in moves to an adjacent location, so that radius 1 covers
+     * the adjacent locations. Only tiles that hold such an animal are
+     * looked into, ring by ring around the tile of the location, so
+     * the cost grows with the number of those animals nearby rather
+     * than with the area within the radius. Of several animals at the
+     * same distance, the one in the lowest row and then column is found.
+     * @param location Where to search from; the animal there is not found.
+     * @param radius The radius.
+     * @param species The species to look for, one bit per id.
+     * @return The location of the nearest animal, or null if there is none.
+     */
+    public Location findNearest(Location location, int radius, long species)
+    {
+        int row = location.getRow();
+        int col = location.getCol();
+        int tileRow = row >> TILE_BITS;
+        int tileCol = col >> TILE_BITS;
+        int tilesDown = (depth + TILE_SIZE - 1) >> TILE_BITS;
+        // The distance of the nearest animal found so far, and where it is.
+        int best = radius + 1;
+        int bestRow = -1;
+        int bestCol = -1;
+        for(int ring = 0; ring <= tilesDown + tilesAcross; ring++) {
+            // The nearest a location in this ring of tiles can be.
+            if(ring > 0 && (ring - 1) * TILE_SIZE + 1 > Math.min(best, radius)) {
+                break;
+            }
+            for(int tr = tileRow - ring; tr <= tileRow + ring; tr++) {
+                if(tr < 0 || tr >= tilesDown) {
+                    continue;
+                }
+                // Inside the ring only its first and last tile.
+                boolean edge = tr == tileRow - ring || tr == tileRow + ring;
+                for(int tc = tileCol - ring; tc <= tileCol + ring; tc += edge ? 1 : 2 * ring) {
+                    if(tc < 0 || tc >= tilesAcross || !holds(tr * tilesAcross + tc, species)) {
+                        continue;
+                    }
+                    int reach = Math.min(best, radius);
+                    int lastRow = Math.min(Math.min((tr + 1) << TILE_BITS, depth) - 1, row + reach);
+                    int lastCol = Math.min(Math.min((tc + 1) << TILE_BITS, width) - 1, col + reach);
+                    for(int r = Math.max(tr << TILE_BITS, row - reach); r <= lastRow; r++) {
+                        for(int c = Math.max(tc << TILE_BITS, col - reach); c <= lastCol; c++) {
+                            int distance = Math.max(Math.abs(r - row), Math.abs(c - col));
+                            if(distance == 0 || distance > best
+                                    || (distance == best && (r > bestRow || (r == bestRow && c > bestCol)))) {
+                                continue;
+                            }
+                            Object occupant = getObjectAt(r, c);
+                            if(occupant instanceof Animal
+                                    && (species & ((Animal) occupant).getSpeciesMask()) != 0
+                                    && ((Animal) occupant).isAlive()) {
+                                best = distance;
+                                bestRow = r;
+                                bestCol = c;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return bestRow >= 0 ? new Location(bestRow, bestCol) : null;
+    }
+    
+    /**
+     * @return true if the tile holds an animal of one of the species.
+     */
+    private boolean holds(int tile, long species)
+    {
+        int base = tile * speciesCount;
+        for(int id = 0; id < speciesCount; id++) {
+            if((species & (1L << id)) != 0 && counts[base + id] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Count an animal in or out of a tile.
+     */
+    private void count(Object occupant, int tile, int change)
+    {
+        if(occupant instanceof Animal) {
+            int index = tile * speciesCount + ((Animal) occupant).getSpeciesId();
+            counts[index] += change;
+            revisions[index]++;
+        }
+    }
+    
+    /**
+     * Return the number of animals of a species in a tile.
+     * @param tileRow The row of the tile, in tiles of TILE_SIZE.
+     * @param tileCol The column of the tile.
+     * @param speciesId The id of the species.
+     * @return The number of animals.
+     */
+    public int getCount(int tileRow, int tileCol, int speciesId)
+    {
+        return counts[(tileRow * tilesAcross + tileCol) * speciesCount + speciesId];
+    }
+    
+    /**
+     * Return a number that changes whenever an animal of a species
+     * enters or leaves a tile, or dies in it.
+     * @param tileRow The row of the tile, in tiles of TILE_SIZE.
+     * @param tileCol The column of the tile.
+     * @param speciesId The id of the species.
+     * @return The revision of the tile for the species.
+     */
+    public int getRevision(int tileRow, int tileCol, int speciesId)
+    {
+        return revisions[(tileRow * tilesAcross + tileCol) * speciesCount + speciesId];
+    }
+    
+    /**
+     * @return The index of the tile holding the given location.
+     */
+    private int tileIndex(int row, int col)
+    {
+        return (row >> TILE_BITS) * tilesAcross + (col >> TILE_BITS);
+    }
+    
+    /**
+     * @return The index of the given location within its tile.
+     */
+    private int cellIndex(int row, int col)
+    {
+        return ((row & (TILE_SIZE - 1)) << TILE_BITS) | (col & (TILE_SIZE - 1));
     }
     
     /**
@@ -162,30 +537,69 @@ public class Field
     {
         assert location != null : "Null location passed to adjacentLocations";
         // The list of locations to be returned.
-        List<Location> locations = new LinkedList<Location>();
+        List<Location> locations = new ArrayList<Location>(8);
         if(location != null) {
+            Location[] adjacent = new Location[8];
+            int count = 0;
             int row = location.getRow();
             int col = location.getCol();
-            for(int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if(nextRow >= 0 && nextRow < depth) {
-                    for(int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if(nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
+            // Only the locations within the field that are not blocked.
+            int mask = neighbours[row * width + col];
+            for(int k = 0; k < ROW_OFFSETS.length; k++) {
+                if((mask & (1 << k)) != 0) {
+                    adjacent[count++] = new Location(row + ROW_OFFSETS[k], col + COL_OFFSETS[k]);
                 }
             }
             
-            // Shuffle the list. Several other methods rely on the list
-            // being in a random order.
-            Collections.shuffle(locations, rand);
+            // Shuffle the locations. Several other methods rely on the list
+            // being in a random order. An animal looking around its own
+            // location shuffles with its own random numbers.
+            Object occupant = getObjectAt(location);
+            long word;
+            if(occupant instanceof Animal) {
+                word = ((Animal) occupant).nextMoveWord();
+            }
+            else {
+                word = simulator.getRandomizer().getBuffer().nextWord();
+            }
+            shuffle(adjacent, count, word);
+            for(int i = 0; i < count; i++) {
+                locations.add(adjacent[i]);
+            }
         }
         return locations;
     }
+    
+    /**
+     * Shuffle the first size entries of the given array using a
+     * single random word. The word is read as one uniform number
+     * below size!, whose mixed-radix digits give the swap targets
+     * of a Fisher-Yates shuffle.
+     * @param locations The locations to shuffle.
+     * @param size The number of locations to shuffle, at most 8.
+     * @param word A random word.
+     */
+    private static void shuffle(Location[] locations, int size, long word)
+    {
+        long r = (word >>> 1) % FACTORIALS[size];
+        for(int i = size - 1; i > 0; i--) {
+            int j = (int) (r % (i + 1));
+            r /= i + 1;
+            Location swap = locations[i];
+            locations[i] = locations[j];
+            locations[j] = swap;
+        }
+    }
 
+    /**
+     * Return the simulation the field belongs to.
+     * @return The simulation.
+     */
+    public Simulator getSimulator()
+    {
+        return simulator;
+    }
+    
     /**
      * Return the depth of the field.
      * @return The depth of the field.
@@ -1,4 +1,4 @@
-import java.awt.Color;
+import java.io.Serializable;
 import java.util.HashMap;
 
 /**
@@ -9,14 +9,14 @@ import java.util.HashMap;
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class FieldStats
+public class FieldStats implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // Counters for each type of entity (fox, rabbit, etc.) in the simulation.
     private HashMap<Class, Counter> counters;
     // Whether the counters are currently up to date.
     private boolean countsValid;
-    
-    private static boolean ziekte = false;
 
     /**
      * Construct a FieldStats object.
@@ -46,22 +46,13 @@ public class FieldStats
             buffer.append(info.getCount());
             buffer.append(' ');
         }
-        if(ziekte == true){
-        	buffer.append("het aantal dieren met de ziekte  " + Simulator.getZiekte() + " : " + Simulator.getAantalZiek());
+        Simulator simulator = field.getSimulator();
+        if(simulator.getZiekte() != null){
+        	buffer.append("het aantal dieren met de ziekte  " + simulator.getZiekte() + " : " + simulator.getAantalZiek());
         }
         return buffer.toString();
     }
     
-   public static void ziekteistrue(){
-	   ziekte = true;
-    }
-   
-   public static void ziekteisfalse(){
-	   if(ziekte = true){
-		   ziekte = false;
-	   }
-   }
-    
     
     /**
      * Invalidate the current set of statistics; reset all 
@@ -92,6 +83,20 @@ public class FieldStats
         count.increment();
     }
 
+    /**
+     * Return the count for one class of animal.
+     * @param animalClass The class of animal.
+     * @return The number of animals of that class.
+     */
+    public int getCount(Class animalClass)
+    {
+        Counter count = counters.get(animalClass);
+        if(count == null) {
+            return 0;
+        }
+        return count.getCount();
+    }
+
     /**
      * Indicate that an animal count has been completed.
      */
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The grass in a field, which rabbits graze. Each location only holds
+ * the step at which it was last grazed; how far the grass has grown
+ * back follows from the steps since then, and is worked out when a
+ * rabbit reads it. So, unlike the scent, the grass needs no pass over
+ * the whole field each step, and costs nothing where no rabbit comes.
+ */
+public class GrassLayer implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The food value of fully grown grass: the number of steps a
+    // rabbit can go on it.
+    public static final int FULL = 4;
+    // The number of steps grass takes to grow back fully.
+    private static final int REGROWTH = 20;
+
+    // The width of the field.
+    private final int width;
+    // The step at which each location was last grazed, row by row.
+    private int[] grazed;
+
+    /**
+     * Create a layer of fully grown grass.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public GrassLayer(int depth, int width)
+    {
+        this.width = width;
+        grazed = new int[depth * width];
+        // Grazed long enough ago to have grown back by step 0.
+        Arrays.fill(grazed, -REGROWTH);
+    }
+
+    /**
+     * @return A copy of this layer, for a fork of the simulation.
+     */
+    public GrassLayer copy()
+    {
+        GrassLayer copy = new GrassLayer(0, width);
+        copy.grazed = grazed.clone();
+        return copy;
+    }
+
+    /**
+     * Return how far the grass at a location has grown.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @param step The current step.
+     * @return The food value of the grass, from 0 up to FULL.
+     */
+    public int getLevel(int row, int col, int step)
+    {
+        int since = step - grazed[row * width + col];
+        if(since >= REGROWTH) {
+            return FULL;
+        }
+        return since * FULL / REGROWTH;
+    }
+
+    /**
+     * Eat all the grass at a location, which then starts to grow back.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @param step The current step.
+     * @return The food value of the grass eaten.
+     */
+    public int graze(int row, int col, int step)
+    {
+        int level = getLevel(row, col, step);
+        grazed[row * width + col] = step;
+        return level;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+/**
+ * Run a simulation from the command line, without a user interface,
+ * and write its population time series as comma-separated values.
+ * The arguments are the settings of a RunConfiguration, plus
+ * out=file to write to a file instead of the standard output.
+ * For example:
+ * <pre>
+ *   java HeadlessRunner depth=200 width=300 seed=7 steps=1000 out=run.csv
+ * </pre>
+ * The time taken per step, and per phase of a step, is reported on
+ * the standard error.
+ * 
+ * Results are kept in a ResultCache, and a run that has been done
+ * before is not done again. The cache is in the directory given by
+ * cache=dir, .simcache by default, and takes at most cacheSize=MB
+ * megabytes. cache=off runs without it, for instance to time a run.
+ * 
+ * With adaptive=true an EngineSelector chooses the data structures
+ * while the simulation runs, and logs its switches to the standard
+ * error, or to the file given by engineLog=file.
+ */
+public class HeadlessRunner
+{
+    /**
+     * Run one simulation as given by the arguments.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws FileNotFoundException
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        String directory = configuration.getOption("cache", ResultCache.DEFAULT_DIRECTORY);
+        ResultCache cache = null;
+        if(!directory.equals("off")) {
+            long megabytes = Long.parseLong(configuration.getOption("cacheSize",
+                    "" + ResultCache.DEFAULT_BUDGET / (1024 * 1024)));
+            cache = new ResultCache(new File(directory), megabytes * 1024 * 1024);
+        }
+        
+        long start = System.nanoTime();
+        Simulator simulator = configuration.createSimulator();
+        String key = simulator.getHistory() + " run=" + configuration.getSteps()
+                     + (configuration.isContinuous() ? " continuous" : "");
+        String cached = cache != null ? cache.getSeries(key) : null;
+        if(cached != null) {
+            out.print(cached);
+            out.flush();
+            if(out != System.out) {
+                out.close();
+            }
+            System.err.println(configuration);
+            System.err.println("Cached result, ms: " + (System.nanoTime() - start) / 1e6);
+            return;
+        }
+        
+        PopulationSeries series = new PopulationSeries(simulator.getSpecies());
+        simulator.addObserver(new PopulationRecorder(simulator, out));
+        simulator.addObserver(series);
+        PrintStream log = null;
+        if(Boolean.parseBoolean(configuration.getOption("adaptive", "false"))) {
+            String logFile = configuration.getOption("engineLog", null);
+            log = logFile != null ? new PrintStream(logFile) : System.err;
+            simulator.addObserver(new EngineSelector(simulator, log));
+        }
+        simulator.notifyObservers();
+        configuration.run(simulator);
+        long elapsed = System.nanoTime() - start;
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        if(log != null && log != System.err) {
+            log.close();
+        }
+        if(cache != null) {
+            ByteArrayOutputStream csv = new ByteArrayOutputStream();
+            PrintStream csvOut = new PrintStream(csv);
+            series.write(csvOut);
+            csvOut.flush();
+            cache.putSeries(key, csv.toString());
+        }
+        
+        int steps = Math.max(simulator.getSteps(), 1);
+        System.err.println(configuration);
+        System.err.println("Steps: " + simulator.getSteps() + ", ms per step: " + (elapsed / 1e6 / steps));
+        System.err.println("Phases: " + simulator.getPhases());
+    }
+}
@@ -0,0 +1,386 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A metapopulation of islands: several simulations, each with its own
+ * field, between which animals migrate now and then.
+ *
+ * Every island is stepped by a thread of its own. Every interval steps
+ * each live animal leaves its island with the migration rate, for a
+ * random neighbouring island. The migrants of an island are sent to
+ * each neighbour as one batch through a lock-free queue, and they land
+ * an interval later, when the neighbour takes that batch at its next
+ * exchange. An island therefore only waits when a neighbour is more
+ * than an interval behind; there is no step at which all islands wait
+ * for each other. A waiting island is parked until the batch is sent.
+ * Because every batch is taken at a fixed exchange, a run gives the
+ * same result however the threads are scheduled, and the same as
+ * stepping the islands in turn on one thread.
+ */
+public class IslandModel
+{
+    // The longest an island is parked before it looks again whether
+    // another has failed.
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // The islands.
+    private List<Simulator> islands;
+    // The population series of each island.
+    private List<PopulationSeries> series;
+    // The routes leaving each island.
+    private List<List<Route>> outgoing;
+    // The routes arriving at each island.
+    private List<List<Route>> incoming;
+    // The probability that an animal leaves at an exchange.
+    private double rate;
+    // The number of steps between exchanges.
+    private int interval;
+    // Set when an island has failed, so that the others stop waiting.
+    private volatile boolean failed;
+
+    /**
+     * A one-way route between two islands, with the batches of
+     * migrants on their way.
+     */
+    private static class Route
+    {
+        // The island the route arrives at.
+        private final int to;
+        // The batches on their way, oldest first.
+        private final Queue<Batch> batches = new ConcurrentLinkedQueue<Batch>();
+        // The thread of the arriving island while it waits for a batch.
+        private volatile Thread waiting;
+
+        private Route(int to)
+        {
+            this.to = to;
+        }
+    }
+
+    /**
+     * The migrants sent along one route at one exchange.
+     */
+    private static class Batch
+    {
+        // The animals, in no field.
+        private final List<Animal> migrants;
+        // The step at which they left.
+        private final int departureStep;
+        // The history of the island they left.
+        private final String origin;
+
+        private Batch(List<Animal> migrants, int departureStep, String origin)
+        {
+            this.migrants = migrants;
+            this.departureStep = departureStep;
+            this.origin = origin;
+        }
+    }
+
+    /**
+     * Create a metapopulation.
+     * @param configuration The configuration of every island; island i
+     *                      uses its seed plus i.
+     * @param count The number of islands.
+     * @param topology How the islands are connected: "ring", "line"
+     *                 or "complete".
+     * @param rate The probability that an animal leaves at an exchange.
+     * @param interval The number of steps between exchanges.
+     * @throws IllegalArgumentException If the topology is unknown.
+     */
+    public IslandModel(RunConfiguration configuration, int count, String topology, double rate, int interval)
+    {
+        this.rate = rate;
+        this.interval = interval;
+        islands = new ArrayList<Simulator>();
+        series = new ArrayList<PopulationSeries>();
+        outgoing = new ArrayList<List<Route>>();
+        incoming = new ArrayList<List<Route>>();
+        for(int i = 0; i < count; i++) {
+            Simulator island = configuration.withSeed(configuration.getSeed() + i).createSimulator();
+            PopulationSeries populations = new PopulationSeries(island.getSpecies());
+            island.addObserver(populations);
+            island.notifyObservers();
+            islands.add(island);
+            series.add(populations);
+            outgoing.add(new ArrayList<Route>());
+            incoming.add(new ArrayList<Route>());
+        }
+        for(int from = 0; from < count; from++) {
+            for(int to = 0; to < count; to++) {
+                if(isConnected(topology, count, from, to)) {
+                    Route route = new Route(to);
+                    outgoing.get(from).add(route);
+                    incoming.get(to).add(route);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run every island for the given number of steps, each on a
+     * thread of its own, and wait for them to finish.
+     * @param steps The number of steps.
+     * @throws Exception If an island failed or waiting was interrupted.
+     */
+    public void run(int steps) throws Exception
+    {
+        // Every island needs its own thread, as islands wait for their neighbours.
+        ExecutorService pool = Executors.newFixedThreadPool(islands.size());
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for(int i = 0; i < islands.size(); i++) {
+                results.add(pool.submit(island(i, steps)));
+            }
+            for(Future<Object> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run every island for the given number of steps on the calling
+     * thread, an interval of each island in turn. This gives the same
+     * result as run().
+     * @param steps The number of steps.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public void runInTurn(int steps) throws InterruptedException
+    {
+        for(int done = 0; done < steps; done += interval) {
+            for(int i = 0; i < islands.size(); i++) {
+                advance(i, done, Math.min(done + interval, steps));
+            }
+        }
+    }
+
+    /**
+     * @return The islands.
+     */
+    public List<Simulator> getIslands()
+    {
+        return islands;
+    }
+
+    /**
+     * Write the population of every island at every step as
+     * comma-separated values.
+     * @param out Where to write.
+     */
+    public void write(PrintStream out)
+    {
+        StringBuilder line = new StringBuilder("island,step");
+        for(Class animalClass : series.get(0).getSpecies()) {
+            line.append(',').append(animalClass.getName());
+        }
+        out.println(line);
+        for(int i = 0; i < series.size(); i++) {
+            PopulationSeries populations = series.get(i);
+            for(int row = 0; row < populations.size(); row++) {
+                line.setLength(0);
+                line.append(i).append(',').append(populations.getStep(row));
+                for(int s = 0; s < populations.getSpecies().size(); s++) {
+                    line.append(',').append(populations.getCount(row, s));
+                }
+                out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Create the task that runs one island.
+     * @param index The number of the island.
+     * @param steps The number of steps.
+     */
+    private Callable<Object> island(final int index, final int steps)
+    {
+        return new Callable<Object>() {
+            public Object call() throws InterruptedException
+            {
+                try {
+                    advance(index, 0, steps);
+                    return null;
+                }
+                catch(RuntimeException e) {
+                    fail();
+                    throw e;
+                }
+                catch(Error e) {
+                    fail();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Step an island from one step to another, exchanging migrants
+     * every interval.
+     * @param index The number of the island.
+     * @param from The step the island is at.
+     * @param to The step to stop at.
+     */
+    private void advance(int index, int from, int to) throws InterruptedException
+    {
+        Simulator island = islands.get(index);
+        for(int step = from + 1; step <= to; step++) {
+            island.simulateOneStep();
+            if(step % interval == 0) {
+                exchange(index, step / interval);
+            }
+        }
+    }
+
+    /**
+     * Record that an island has failed, and wake the islands that
+     * wait for a batch so that they stop.
+     */
+    private void fail()
+    {
+        failed = true;
+        for(List<Route> routes : outgoing) {
+            for(Route route : routes) {
+                Thread waiting = route.waiting;
+                if(waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the migrants of an island to its neighbours, and land those
+     * that the neighbours sent at the exchange before.
+     * @param index The number of the island.
+     * @param round The number of the exchange, from 1.
+     */
+    private void exchange(int index, int round) throws InterruptedException
+    {
+        Simulator island = islands.get(index);
+        List<Route> routes = outgoing.get(index);
+        List<List<Animal>> batches = new ArrayList<List<Animal>>();
+        for(int i = 0; i < routes.size(); i++) {
+            batches.add(new ArrayList<Animal>());
+        }
+        if(routes.isEmpty() && incoming.get(index).isEmpty()) {
+            // An isolated island runs like a simulation of its own.
+            return;
+        }
+        List<Animal> migrants = routes.isEmpty() ? new ArrayList<Animal>() : island.emigrate(rate);
+        Randomizer randomizer = island.getRandomizer();
+        for(Animal migrant : migrants) {
+            int route = Randomizer.below(randomizer.getBuffer().nextWord(), routes.size());
+            batches.get(route).add(migrant);
+        }
+        String origin = island.getHistory();
+        for(int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            route.batches.add(new Batch(batches.get(i), island.getSteps(), origin));
+            Thread waiting = route.waiting;
+            if(waiting != null) {
+                LockSupport.unpark(waiting);
+            }
+        }
+
+        if(round > 1) {
+            for(Route route : incoming.get(index)) {
+                Batch batch = take(route);
+                island.immigrate(batch.migrants, batch.departureStep, batch.origin);
+            }
+        }
+    }
+
+    /**
+     * Take the oldest batch on a route, parking until its island has
+     * sent it if need be. The sender unparks the waiting thread; the
+     * queue is polled again after the thread is made known, so that a
+     * batch sent in between is not missed.
+     */
+    private Batch take(Route route) throws InterruptedException
+    {
+        Batch batch = route.batches.poll();
+        if(batch != null) {
+            return batch;
+        }
+        route.waiting = Thread.currentThread();
+        try {
+            batch = route.batches.poll();
+            while(batch == null) {
+                if(failed) {
+                    throw new InterruptedException("Another island has failed");
+                }
+                if(Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(route, PARK_NANOS);
+                batch = route.batches.poll();
+            }
+        }
+        finally {
+            route.waiting = null;
+        }
+        return batch;
+    }
+
+    /**
+     * Decide whether migrants go from one island to another.
+     */
+    private static boolean isConnected(String topology, int count, int from, int to)
+    {
+        if(from == to) {
+            return false;
+        }
+        if(topology.equals("complete")) {
+            return true;
+        }
+        if(topology.equals("line")) {
+            return Math.abs(from - to) == 1;
+        }
+        if(topology.equals("ring")) {
+            return (from + 1) % count == to || (to + 1) % count == from;
+        }
+        throw new IllegalArgumentException("Unknown topology: " + topology);
+    }
+
+    /**
+     * Run a metapopulation from the command line. The arguments are
+     * those of HeadlessRunner, plus islands=N (default 4),
+     * topology=ring|line|complete (default ring), migrationRate=P
+     * (default 0.01) and migrationInterval=K (default 10). Islands are
+     * always stepped, whatever the engine setting.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        int count = Integer.parseInt(configuration.getOption("islands", "4"));
+        String topology = configuration.getOption("topology", "ring");
+        double rate = Double.parseDouble(configuration.getOption("migrationRate", "0.01"));
+        int interval = Integer.parseInt(configuration.getOption("migrationInterval", "10"));
+
+        IslandModel model = new IslandModel(configuration, count, topology, rate, interval);
+        long start = System.nanoTime();
+        model.run(configuration.getSteps());
+        long elapsed = System.nanoTime() - start;
+
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        model.write(out);
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        System.err.println("Islands: " + count + ", ms per step: " + (elapsed / 1e6 / configuration.getSteps()));
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A queue of simulation jobs kept in a directory, so that it survives
+ * crashes of the processes that use it; see WorkerPool.
+ *
+ * Each job is a file holding the configuration of one headless run,
+ * and moves between four subdirectories: pending, running while a
+ * worker has claimed it, done when its result has been written, and
+ * failed when it has crashed its workers too often. A worker claims a
+ * job by renaming its file into running with the worker's name added,
+ * which succeeds for one worker only. Results are written to a
+ * temporary file first and then renamed, so a result file is always
+ * complete.
+ */
+public class JobQueue
+{
+    // Separates the name of a job from that of the worker running it.
+    private static final String CLAIM = "@";
+    // The extension of result files.
+    private static final String RESULT = ".csv";
+
+    // The jobs waiting for a worker.
+    private File pending;
+    // The jobs claimed by a worker.
+    private File running;
+    // The results of finished jobs.
+    private File done;
+    // The jobs given up on.
+    private File failed;
+
+    /**
+     * Open a queue, creating its directories if needed.
+     * @param directory The directory of the queue.
+     * @throws IOException If the directories cannot be created.
+     */
+    public JobQueue(File directory) throws IOException
+    {
+        pending = directory(directory, "pending");
+        running = directory(directory, "running");
+        done = directory(directory, "done");
+        failed = directory(directory, "failed");
+    }
+
+    /**
+     * Add a job, unless it is in the queue already. A job that has been
+     * given up on is not added again until its file is removed from
+     * the failed directory.
+     * @param name The name of the job, unique within the queue.
+     * @param configuration The settings of the run, as given to
+     *                      RunConfiguration.parse() separated by spaces.
+     * @return true if the job has been added.
+     * @throws IOException If the job cannot be written.
+     */
+    public boolean add(String name, String configuration) throws IOException
+    {
+        if(new File(pending, name).exists() || new File(done, name + RESULT).exists()
+                || hasFailed(name) || !claims(name).isEmpty()) {
+            return false;
+        }
+        write(new File(pending, name), configuration + "\n");
+        return true;
+    }
+
+    /**
+     * Claim the first waiting job for a worker.
+     * @param worker The name of the worker.
+     * @return The name of the job, or null if none is waiting.
+     */
+    public String claim(String worker)
+    {
+        for(String name : list(pending)) {
+            if(new File(pending, name).renameTo(new File(running, name + CLAIM + worker))) {
+                return name;
+            }
+            // Another worker was first.
+        }
+        return null;
+    }
+
+    /**
+     * Read the configuration of a claimed job.
+     * @param name The name of the job.
+     * @param worker The worker that claimed it.
+     * @return The settings of the run.
+     * @throws IOException If the job cannot be read.
+     */
+    public String getConfiguration(String name, String worker) throws IOException
+    {
+        return read(new File(running, name + CLAIM + worker)).trim();
+    }
+
+    /**
+     * Store the result of a claimed job, which is then done.
+     * @param name The name of the job.
+     * @param worker The worker that claimed it.
+     * @param result The population series as comma-separated values.
+     * @throws IOException If the result cannot be written.
+     */
+    public void complete(String name, String worker, String result) throws IOException
+    {
+        File claim = new File(running, name + CLAIM + worker);
+        write(new File(done, name + RESULT), getConfiguration(name, worker) + "\n" + result);
+        claim.delete();
+    }
+
+    /**
+     * Put the jobs claimed by a worker back in the queue, for instance
+     * because the worker has crashed.
+     * @param worker The name of the worker.
+     * @return The names of the jobs.
+     */
+    public List<String> release(String worker)
+    {
+        List<String> released = new ArrayList<String>();
+        for(String claim : list(running)) {
+            if(claim.endsWith(CLAIM + worker)) {
+                String name = claim.substring(0, claim.length() - CLAIM.length() - worker.length());
+                if(new File(running, claim).renameTo(new File(pending, name))) {
+                    released.add(name);
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Put all claimed jobs back in the queue, for instance after the
+     * processes that claimed them have been stopped.
+     * @return The names of the jobs.
+     */
+    public List<String> releaseAll()
+    {
+        List<String> released = new ArrayList<String>();
+        for(String claim : list(running)) {
+            String name = claim.substring(0, claim.lastIndexOf(CLAIM));
+            if(new File(running, claim).renameTo(new File(pending, name))) {
+                released.add(name);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Give up on a waiting job.
+     * @param name The name of the job.
+     */
+    public void fail(String name)
+    {
+        new File(pending, name).renameTo(new File(failed, name));
+    }
+
+    /**
+     * @return The number of jobs waiting for a worker.
+     */
+    public int getPendingCount()
+    {
+        return list(pending).size();
+    }
+
+    /**
+     * @param name The name of a job.
+     * @return true if the job has been given up on.
+     */
+    public boolean hasFailed(String name)
+    {
+        return new File(failed, name).exists();
+    }
+
+    /**
+     * Read the result of a job.
+     * @param name The name of the job.
+     * @return The population series as comma-separated values, or null
+     *         if the job is not done.
+     * @throws IOException If the result cannot be read.
+     */
+    public String getResult(String name) throws IOException
+    {
+        File file = new File(done, name + RESULT);
+        if(!file.exists()) {
+            return null;
+        }
+        String content = read(file);
+        // The first line is the configuration.
+        return content.substring(content.indexOf('\n') + 1);
+    }
+
+    /**
+     * @return The claims of a job, normally none or one.
+     */
+    private List<String> claims(String name)
+    {
+        List<String> claims = new ArrayList<String>();
+        for(String claim : list(running)) {
+            if(claim.startsWith(name + CLAIM)) {
+                claims.add(claim);
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * @return The names of the files in a directory, in name order,
+     *         without temporary files.
+     */
+    private static List<String> list(File directory)
+    {
+        String[] names = directory.list();
+        List<String> files = new ArrayList<String>();
+        if(names != null) {
+            Arrays.sort(names);
+            for(String name : names) {
+                if(!name.endsWith(".tmp")) {
+                    files.add(name);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return A subdirectory, created if needed.
+     */
+    private static File directory(File parent, String name) throws IOException
+    {
+        File directory = new File(parent, name);
+        directory.mkdirs();
+        if(!directory.isDirectory()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Write a file through a temporary file, so that it is complete
+     * whenever it exists.
+     */
+    private static void write(File file, String content) throws IOException
+    {
+        File temporary = new File(file.getParentFile(), file.getName() + "." + System.nanoTime() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+        file.delete();
+        if(!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    /**
+     * Read a whole file.
+     */
+    private static String read(File file) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            StringBuilder content = new StringBuilder();
+            String line;
+            while((line = in.readLine()) != null) {
+                content.append(line).append('\n');
+            }
+            return content.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+}
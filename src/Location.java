@@ -1,11 +1,15 @@
+import java.io.Serializable;
+
 /**
  * Represent a location in a rectangular grid.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Location
+public class Location implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // Row and column positions.
     private int row;
     private int col;
@@ -0,0 +1,79 @@
+/**
+ * Compare the time per step of the orders in which animals can act,
+ * from the command line. The arguments are the settings of a
+ * RunConfiguration, plus:
+ * <pre>
+ *   orders=a,b,...  the orders to compare (default list,species,interleaved)
+ *   warmup=N        runs of each order before measuring (default 3)
+ *   runs=N          measured runs of each order (default 5)
+ * </pre>
+ * Every order is run in the same virtual machine, in turns, so that
+ * the compiler has seen all of them before any is measured; the order
+ * of the list is then measured with the call to act() shared by every
+ * species, as it is in a real run. As the orders give different runs
+ * with different populations, the time is divided by the number of
+ * animals; the best and the mean time per animal per step of each
+ * order is reported.
+ */
+public class OrderBenchmark
+{
+    /**
+     * Run the comparison.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[])
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        String[] orders = configuration.getOption("orders", "list,species,interleaved").split(",");
+        int warmup = Integer.parseInt(configuration.getOption("warmup", "3"));
+        int runs = Integer.parseInt(configuration.getOption("runs", "5"));
+        if(configuration.isContinuous()) {
+            throw new IllegalArgumentException("The continuous engine has no order");
+        }
+
+        for(int i = 0; i < warmup; i++) {
+            for(String order : orders) {
+                time(configuration, order);
+            }
+        }
+        double[] best = new double[orders.length];
+        double[] total = new double[orders.length];
+        for(int i = 0; i < runs; i++) {
+            for(int o = 0; o < orders.length; o++) {
+                double cost = time(configuration, orders[o]);
+                best[o] = i == 0 ? cost : Math.min(best[o], cost);
+                total[o] += cost;
+            }
+        }
+        System.out.println(configuration);
+        for(int o = 0; o < orders.length; o++) {
+            System.out.printf("%-12s best %.1f ns per animal step, mean %.1f%n",
+                              orders[o], best[o], total[o] / runs);
+        }
+    }
+
+    /**
+     * Run a simulation in the given order.
+     * @return The time per animal per step in nanoseconds.
+     */
+    private static double time(RunConfiguration configuration, String order)
+    {
+        RunConfiguration run = configuration.copy();
+        run.set("order", order);
+        final Simulator simulator = run.createSimulator();
+        // The number of animals summed over the steps.
+        final long[] animalSteps = new long[1];
+        simulator.addObserver(new SimulatorObserver() {
+            public void showStatus(int step, Field field)
+            {
+                FieldStats stats = simulator.getStats();
+                for(Class animalClass : simulator.getSpecies()) {
+                    animalSteps[0] += stats.getCount(animalClass);
+                }
+            }
+        });
+        long start = System.nanoTime();
+        run.run(simulator);
+        return (System.nanoTime() - start) / (double) Math.max(animalSteps[0], 1);
+    }
+}
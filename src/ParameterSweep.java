@@ -0,0 +1,272 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run one simulation for every point of a design over ranges of species
+ * parameters, such as Fox.breedingAge from 5 to 30, spread over a fixed
+ * number of threads. The design is either the cartesian product of
+ * evenly spaced levels of every parameter, or a Latin hypercube sample.
+ * 
+ * A run is stopped as soon as it is no longer viable or meets the stop
+ * condition, so that the time goes to the runs that stay interesting.
+ */
+public class ParameterSweep
+{
+    // The configuration every run starts from.
+    private RunConfiguration configuration;
+    // The names of the swept parameters, e.g. "Fox.maxAge".
+    private List<String> names;
+    // The lowest value of each swept parameter.
+    private List<Double> lows;
+    // The highest value of each swept parameter.
+    private List<Double> highs;
+    // The condition to stop runs at, or null.
+    private StopCondition stop;
+
+    /**
+     * Create a sweep without parameters.
+     * @param configuration The configuration every run starts from.
+     * @param stop The condition to stop runs at, or null to run each
+     *             until it is no longer viable.
+     */
+    public ParameterSweep(RunConfiguration configuration, StopCondition stop)
+    {
+        this.configuration = configuration;
+        this.stop = stop;
+        names = new ArrayList<String>();
+        lows = new ArrayList<Double>();
+        highs = new ArrayList<Double>();
+    }
+    
+    /**
+     * Add a parameter to sweep.
+     * @param name The name of the parameter, e.g. "Fox.maxAge".
+     * @param low The lowest value.
+     * @param high The highest value.
+     */
+    public void addRange(String name, double low, double high)
+    {
+        // Fail now on unknown parameters rather than in every run.
+        configuration.copy().set(name, format(name, low));
+        names.add(name);
+        lows.add(low);
+        highs.add(high);
+    }
+    
+    /**
+     * Build the cartesian design: every combination of evenly spaced
+     * levels of the swept parameters, from low to high.
+     * @param levels The number of levels of each parameter.
+     * @return One configuration per design point.
+     */
+    public List<RunConfiguration> cartesian(int levels)
+    {
+        List<RunConfiguration> design = new ArrayList<RunConfiguration>();
+        design.add(configuration.copy());
+        for(int p = 0; p < names.size(); p++) {
+            List<RunConfiguration> next = new ArrayList<RunConfiguration>();
+            for(RunConfiguration point : design) {
+                for(int level = 0; level < levels; level++) {
+                    double fraction = levels > 1 ? level / (double) (levels - 1) : 0.5;
+                    RunConfiguration run = point.copy();
+                    run.set(names.get(p), format(names.get(p), value(p, fraction)));
+                    next.add(run);
+                }
+            }
+            design = next;
+        }
+        return design;
+    }
+    
+    /**
+     * Build a Latin hypercube design: the range of every parameter is
+     * cut into as many strata as there are samples, and every stratum
+     * of every parameter is used by exactly one sample.
+     * @param samples The number of design points.
+     * @return One configuration per design point.
+     */
+    public List<RunConfiguration> latinHypercube(int samples)
+    {
+        Random rand = new Random(configuration.getSeed());
+        List<RunConfiguration> design = new ArrayList<RunConfiguration>();
+        for(int i = 0; i < samples; i++) {
+            design.add(configuration.copy());
+        }
+        for(int p = 0; p < names.size(); p++) {
+            int[] strata = new int[samples];
+            for(int i = 0; i < samples; i++) {
+                strata[i] = i;
+            }
+            for(int i = samples - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int swap = strata[i];
+                strata[i] = strata[j];
+                strata[j] = swap;
+            }
+            for(int i = 0; i < samples; i++) {
+                double fraction = (strata[i] + rand.nextDouble()) / samples;
+                design.get(i).set(names.get(p), format(names.get(p), value(p, fraction)));
+            }
+        }
+        return design;
+    }
+    
+    /**
+     * Run every point of a design and write one line per point.
+     * @param design The design points.
+     * @param threads The number of runs at the same time.
+     * @param out Where to write the results.
+     * @throws IllegalArgumentException If the design has no points.
+     * @throws Exception If a run failed or waiting was interrupted.
+     */
+    public void run(List<RunConfiguration> design, int threads, PrintStream out) throws Exception
+    {
+        if(design.isEmpty()) {
+            throw new IllegalArgumentException("The design has no points");
+        }
+        // Every point has the same species, in the order of the table.
+        List<Class> species = new ArrayList<Class>(configuration.createParameters().keySet());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for(RunConfiguration point : design) {
+                results.add(pool.submit(task(point)));
+            }
+            StringBuilder header = new StringBuilder("point");
+            for(String name : names) {
+                header.append(',').append(name);
+            }
+            header.append(",steps,outcome");
+            for(Class animalClass : species) {
+                header.append(',').append(animalClass.getName());
+            }
+            out.println(header);
+            for(int i = 0; i < results.size(); i++) {
+                out.println(i + results.get(i).get());
+                out.flush();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Create the task that runs one design point. It returns the rest
+     * of the result line: the parameter values, the number of steps
+     * run, how the run ended and the final populations.
+     */
+    private Callable<String> task(final RunConfiguration point)
+    {
+        return new Callable<String>() {
+            public String call()
+            {
+                Simulator simulator = point.createSimulator();
+                point.run(simulator, stop);
+                String outcome;
+                if(!simulator.isViable()) {
+                    outcome = "extinct";
+                }
+                else if(simulator.getSteps() < point.getSteps()) {
+                    outcome = "stopped";
+                }
+                else {
+                    outcome = "completed";
+                }
+                StringBuilder line = new StringBuilder();
+                for(String name : names) {
+                    line.append(',').append(point.getParameter(name));
+                }
+                line.append(',').append(simulator.getSteps()).append(',').append(outcome);
+                FieldStats stats = simulator.getStats();
+                for(Class animalClass : simulator.getSpecies()) {
+                    line.append(',').append(stats.getCount(animalClass));
+                }
+                return line.toString();
+            }
+        };
+    }
+    
+    /**
+     * @return The value a fraction of the way through the range of parameter p.
+     */
+    private double value(int p, double fraction)
+    {
+        return lows.get(p) + fraction * (highs.get(p) - lows.get(p));
+    }
+    
+    /**
+     * Format a parameter value, rounding all but probabilities to
+     * whole numbers.
+     */
+    private static String format(String name, double value)
+    {
+        if(name.endsWith(".breedingProbability")) {
+            return Double.toString(value);
+        }
+        return Long.toString(Math.round(value));
+    }
+    
+    /**
+     * Run a sweep from the command line. The arguments are those of
+     * HeadlessRunner, plus:
+     * <pre>
+     *   sweep.Fox.maxAge=100:200   a parameter range, one per parameter
+     *   design=cartesian|lhs       the design (default cartesian)
+     *   levels=N                   levels per parameter for cartesian
+     *   samples=N                  design points for lhs
+     *   threads=N                  runs at the same time (default: cores)
+     *   maxPopulation=N            stop runs when a species exceeds N
+     * </pre>
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        List<String> settings = new ArrayList<String>();
+        List<String> ranges = new ArrayList<String>();
+        for(String arg : args) {
+            if(arg.startsWith("sweep.")) {
+                ranges.add(arg.substring("sweep.".length()));
+            }
+            else {
+                settings.add(arg);
+            }
+        }
+        RunConfiguration configuration = RunConfiguration.parse(settings.toArray(new String[settings.size()]));
+        String limit = configuration.getOption("maxPopulation", null);
+        StopCondition stop = limit != null ? new PopulationLimit(Integer.parseInt(limit)) : null;
+        ParameterSweep sweep = new ParameterSweep(configuration, stop);
+        for(String range : ranges) {
+            int split = range.indexOf('=');
+            int colon = range.indexOf(':', split);
+            if(split <= 0 || colon < 0) {
+                throw new IllegalArgumentException("Expected sweep.Species.parameter=low:high: " + range);
+            }
+            sweep.addRange(range.substring(0, split),
+                           Double.parseDouble(range.substring(split + 1, colon)),
+                           Double.parseDouble(range.substring(colon + 1)));
+        }
+        
+        List<RunConfiguration> design;
+        if(configuration.getOption("design", "cartesian").equals("lhs")) {
+            design = sweep.latinHypercube(Integer.parseInt(configuration.getOption("samples", "20")));
+        }
+        else {
+            design = sweep.cartesian(Integer.parseInt(configuration.getOption("levels", "3")));
+        }
+        int threads = Integer.parseInt(configuration.getOption("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        sweep.run(design, threads, out);
+        if(out != System.out) {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * A process that runs jobs from a JobQueue until none are left; see
+ * WorkerPool. Each job is one headless run, whose population series
+ * is stored as the result of the job.
+ */
+public class PoolWorker
+{
+    /**
+     * Run jobs from the command line.
+     * @param args The directory of the queue and the name of this
+     *             worker, unique among the workers of the queue.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        if(args.length != 2) {
+            System.err.println("Usage: java PoolWorker queue name");
+            System.exit(2);
+        }
+        JobQueue queue = new JobQueue(new File(args[0]));
+        String worker = args[1];
+        String job;
+        while((job = queue.claim(worker)) != null) {
+            RunConfiguration configuration = RunConfiguration.parse(queue.getConfiguration(job, worker).split(" "));
+            Simulator simulator = configuration.createSimulator();
+            PopulationSeries series = new PopulationSeries(simulator.getSpecies());
+            simulator.addObserver(series);
+            simulator.notifyObservers();
+            configuration.run(simulator);
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(result, false, "UTF-8");
+            series.write(out);
+            out.flush();
+            queue.complete(job, worker, result.toString("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * A stop condition that is met when any species grows beyond a limit.
+ * Such runs are usually not interesting for tuning, and a population
+ * explosion makes every further step expensive.
+ */
+public class PopulationLimit implements StopCondition
+{
+    // The largest allowed population of a single species.
+    private int limit;
+
+    /**
+     * Create a population limit.
+     * @param limit The largest allowed population of a single species.
+     */
+    public PopulationLimit(int limit)
+    {
+        this.limit = limit;
+    }
+    
+    /**
+     * @return true if any species has grown beyond the limit.
+     */
+    public boolean shouldStop(Simulator simulator)
+    {
+        FieldStats stats = simulator.getStats();
+        for(Class animalClass : simulator.getSpecies()) {
+            if(stats.getCount(animalClass) > limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
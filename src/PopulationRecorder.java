@@ -0,0 +1,46 @@
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * An observer that writes the population of every species at every
+ * step as comma-separated values, one line per step.
+ */
+public class PopulationRecorder implements SimulatorObserver
+{
+    // Where the lines are written.
+    private PrintStream out;
+    // The species to record, in column order.
+    private List<Class> species;
+
+    /**
+     * Create a recorder and write the header line.
+     * @param simulator The simulation to record.
+     * @param out Where to write the lines.
+     */
+    public PopulationRecorder(Simulator simulator, PrintStream out)
+    {
+        this.out = out;
+        species = simulator.getSpecies();
+        StringBuilder header = new StringBuilder("step");
+        for(Class animalClass : species) {
+            header.append(',').append(animalClass.getName());
+        }
+        out.println(header);
+    }
+    
+    /**
+     * Write the population of the current step.
+     * @param step Which iteration step it is.
+     * @param field The field of the simulation.
+     */
+    public void showStatus(int step, Field field)
+    {
+        FieldStats stats = field.getSimulator().getStats();
+        StringBuilder line = new StringBuilder();
+        line.append(step);
+        for(Class animalClass : species) {
+            line.append(',').append(stats.getCount(animalClass));
+        }
+        out.println(line);
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An observer that keeps the population of every species at every step
+ * of a simulation in memory.
+ */
+public class PopulationSeries implements SimulatorObserver
+{
+    // The recorded species, in column order.
+    private List<Class> species;
+    // The step of each row.
+    private List<Integer> steps;
+    // The population counts of each row, one per species.
+    private List<int[]> counts;
+
+    /**
+     * Create an empty series for the species of a simulation.
+     * @param species The species to record, in column order.
+     */
+    public PopulationSeries(List<Class> species)
+    {
+        this.species = new ArrayList<Class>(species);
+        steps = new ArrayList<Integer>();
+        counts = new ArrayList<int[]>();
+    }
+    
+    /**
+     * Record the population of the current step.
+     * @param step Which iteration step it is.
+     * @param field The field of the simulation.
+     */
+    public void showStatus(int step, Field field)
+    {
+        FieldStats stats = field.getSimulator().getStats();
+        int[] row = new int[species.size()];
+        for(int i = 0; i < row.length; i++) {
+            row[i] = stats.getCount(species.get(i));
+        }
+        add(step, row);
+    }
+    
+    /**
+     * Add a row to the series.
+     * @param step The step of the row.
+     * @param row The population of each species.
+     */
+    public void add(int step, int[] row)
+    {
+        steps.add(step);
+        counts.add(row);
+    }
+    
+    /**
+     * @return The recorded species, in column order.
+     */
+    public List<Class> getSpecies()
+    {
+        return species;
+    }
+    
+    /**
+     * @return The number of recorded rows.
+     */
+    public int size()
+    {
+        return counts.size();
+    }
+    
+    /**
+     * @param row The index of a row.
+     * @return The step of that row.
+     */
+    public int getStep(int row)
+    {
+        return steps.get(row);
+    }
+    
+    /**
+     * @param row The index of a row.
+     * @param species The index of a species.
+     * @return The population of that species in that row.
+     */
+    public int getCount(int row, int species)
+    {
+        return counts.get(row)[species];
+    }
+    
+    /**
+     * Find the first step at which this series differs from another.
+     * @param other A series of the same species.
+     * @return The step, or -1 if the series are the same.
+     */
+    public int firstDifference(PopulationSeries other)
+    {
+        for(int row = 0; row < Math.max(size(), other.size()); row++) {
+            if(row >= size() || row >= other.size()) {
+                return row < size() ? getStep(row) : other.getStep(row);
+            }
+            for(int s = 0; s < species.size(); s++) {
+                if(getCount(row, s) != other.getCount(row, s)) {
+                    return getStep(row);
+                }
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Write the series as comma-separated values with a header line.
+     * @param out Where to write.
+     */
+    public void write(PrintStream out)
+    {
+        StringBuilder line = new StringBuilder("step");
+        for(Class animalClass : species) {
+            line.append(',').append(animalClass.getName());
+        }
+        out.println(line);
+        for(int row = 0; row < counts.size(); row++) {
+            line.setLength(0);
+            line.append(steps.get(row));
+            for(int count : counts.get(row)) {
+                line.append(',').append(count);
+            }
+            out.println(line);
+        }
+    }
+}
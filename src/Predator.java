@@ -0,0 +1,232 @@
+import java.util.List;
+
+/**
+ * A model of a predator: it hunts the species in its diet, breeds and
+ * moves, and dies of hunger or old age. What it eats, how much each
+ * prey is worth to it and its life history are taken from its row of
+ * the species table, so Fox, Beer and Jager share this code and only
+ * say which species they are; see Species.
+ */
+public abstract class Predator extends Animal
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a predator. A predator can be created as a new born (age
+     * zero and not hungry) or with a random age and food level.
+     *
+     * @param species The predator's species.
+     * @param randomAge If true, the predator will have random age and hunger level.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     */
+    public Predator(Species species, boolean randomAge, Field field, Location location)
+    {
+        super(species, field, location);
+        if(randomAge) {
+            setAge(randomInt(Randomizer.AGE, getParameters().getMaxAge()));
+            setFoodLevel(randomInt(Randomizer.FOOD, species.getBirthFoodLevel()));
+        }
+        else {
+            setFoodLevel(species.getBirthFoodLevel());
+        }
+    }
+
+    /**
+     * Create a new born predator of the same species.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @return The new born.
+     */
+    protected abstract Animal newborn(Field field, Location location);
+
+    /**
+     * This is what the predator does most of the time: it hunts for
+     * prey. In the process, it might breed, die of hunger,
+     * or die of old age.
+     * @param newAnimals A list to return newly born predators.
+     */
+    public final void act(List<Animal> newAnimals)
+    {
+        act(getSimulator().getKernel(getSpeciesId()), newAnimals);
+    }
+
+    /**
+     * Act with the given kernel of the species for this step.
+     * @param kernel The kernel of the predator's species.
+     * @param newAnimals A list to return newly born predators.
+     */
+    public final void act(SpeciesKernel kernel, List<Animal> newAnimals)
+    {
+        if(isAlive()) {
+            giveBirth(kernel, newAnimals);
+            // Move towards a source of food if found.
+            Location newLocation = findFood(kernel);
+            if(newLocation == null && kernel.getVisionRadius() > 1) {
+                // No prey adjacent - move towards the nearest in sight.
+                newLocation = getSimulator().isDistancePursuit() ? descendToPrey(kernel) : approachPrey(kernel);
+            }
+            if(newLocation == null && getSimulator().isScented()) {
+                // No food found - follow the scent of prey.
+                newLocation = freeLocationByScent(kernel.getPrey(), true);
+            }
+            else if(newLocation == null) {
+                // No food found - try to move to a free location.
+                newLocation = getField().freeAdjacentLocation(getLocation());
+            }
+            // See if it was possible to move.
+            if(newLocation != null) {
+                setLocation(newLocation);
+            }
+            else {
+                // Overcrowding.
+                setDead();
+            }
+        }
+    }
+
+    /**
+     * Look for prey adjacent to the current location.
+     * Only the first live prey is eaten.
+     * @return Where food was found, or null if it wasn't.
+     */
+    private Location findFood(SpeciesKernel kernel)
+    {
+        long diet = kernel.getDiet();
+        Field field = getField();
+        for(Location where : field.adjacentLocations(getLocation())) {
+            Object occupant = field.getObjectAt(where);
+            if(occupant instanceof Animal) {
+                Animal prey = (Animal) occupant;
+                if((diet & prey.getSpeciesMask()) != 0 && prey.isAlive()) {
+                    getSimulator().own(prey).setDead();
+                    int value = kernel.getFoodValue(prey.getSpeciesId());
+                    setFoodLevel(kernel.addsFood() ? getFoodLevel() + value : value);
+                    // The predator moves to where the prey was.
+                    return where;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look for the nearest prey within the vision radius, and find the
+     * free adjacent location nearest to it.
+     * @param kernel The kernel of the predator's species.
+     * @return Where to move, or null if no prey is in sight or no
+     *         adjacent location is free.
+     */
+    private Location approachPrey(SpeciesKernel kernel)
+    {
+        Field field = getField();
+        Location target = field.findNearest(getLocation(), kernel.getVisionRadius(), kernel.getDiet());
+        if(target == null) {
+            return null;
+        }
+        Location best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for(Location next : field.getFreeAdjacentLocations(getLocation())) {
+            int distance = Math.max(Math.abs(next.getRow() - target.getRow()),
+                                    Math.abs(next.getCol() - target.getCol()));
+            if(distance < bestDistance) {
+                best = next;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the free adjacent location nearest to prey in sight by the
+     * distance fields of the simulation, which hold the distances as
+     * they were at the start of the step.
+     * @param kernel The kernel of the predator's species.
+     * @return Where to move, or null if no prey is in sight or no
+     *         adjacent location is free.
+     */
+    private Location descendToPrey(SpeciesKernel kernel)
+    {
+        Location here = getLocation();
+        if(preyDistance(kernel, here) > kernel.getVisionRadius()) {
+            return null;
+        }
+        Location best = null;
+        int bestDistance = DistanceField.FAR;
+        for(Location next : getField().getFreeAdjacentLocations(here)) {
+            int distance = preyDistance(kernel, next);
+            if(distance < bestDistance) {
+                best = next;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The distance from a location to the nearest prey, or
+     *         DistanceField.FAR if there is none in the distance fields.
+     */
+    private int preyDistance(SpeciesKernel kernel, Location location)
+    {
+        Simulator simulator = getSimulator();
+        int nearest = DistanceField.FAR;
+        for(int prey : kernel.getPrey()) {
+            int distance = simulator.getDistanceField(prey).getDistance(location.getRow(), location.getCol());
+            nearest = Math.min(nearest, distance);
+        }
+        return nearest;
+    }
+
+    /**
+     * Check whether or not this predator is to give birth at this step.
+     * New births will be made into free adjacent locations.
+     * @param kernel The kernel of the predator's species.
+     * @param newAnimals A list to return newly born predators.
+     */
+    private void giveBirth(SpeciesKernel kernel, List<Animal> newAnimals)
+    {
+        // New predators are born into adjacent locations.
+        int births = breed(kernel);
+        if(births == 0) {
+            return;
+        }
+        // Get a list of adjacent free locations.
+        Field field = getField();
+        List<Location> free = field.getFreeAdjacentLocations(getLocation());
+        for(int b = 0; b < births && free.size() > 0; b++) {
+            Location loc = free.remove(0);
+            newAnimals.add(newborn(field, loc));
+        }
+    }
+
+    /**
+     * Generate a number representing the number of births,
+     * if it can breed.
+     * @param kernel The kernel of the predator's species.
+     * @return The number of births (may be zero).
+     */
+    private int breed(SpeciesKernel kernel)
+    {
+        int births = 0;
+        if(canBreed(kernel) && kernel.isScheduledBreeding()) {
+            births = scheduledBirths(getAge());
+        }
+        else if(canBreed(kernel)) {
+            // One word decides both whether and how many are born.
+            long word = randomWord(Randomizer.BREEDING, getAge());
+            if(Randomizer.hits(word, kernel.getBreedingThreshold())) {
+                births = Randomizer.litterSize(word, kernel.getMaxLitterSize());
+            }
+        }
+        return births;
+    }
+
+    /**
+     * A predator can breed if it has reached the breeding age.
+     */
+    private boolean canBreed(SpeciesKernel kernel)
+    {
+        return getAge() >= kernel.getBreedingAge();
+    }
+}
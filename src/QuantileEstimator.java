@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Estimate one quantile of a stream of numbers in constant memory with
+ * the P-square algorithm of Jain and Chlamtac. Five markers track the
+ * minimum, the maximum, the wanted quantile and the quantiles halfway
+ * between; their heights are adjusted with a parabolic formula as
+ * numbers come in.
+ */
+public class QuantileEstimator
+{
+    // The quantile to estimate, between 0 and 1.
+    private double probability;
+    // The number of values seen.
+    private int count;
+    // The marker heights.
+    private double[] heights;
+    // The marker positions.
+    private int[] positions;
+    // The desired marker positions.
+    private double[] desired;
+    // The increments of the desired marker positions.
+    private double[] increments;
+
+    /**
+     * Create an estimator for the given quantile.
+     * @param probability The quantile, e.g. 0.5 for the median.
+     */
+    public QuantileEstimator(double probability)
+    {
+        this.probability = probability;
+        count = 0;
+        heights = new double[5];
+        positions = new int[] {0, 1, 2, 3, 4};
+        desired = new double[] {0, 2 * probability, 4 * probability, 2 + 2 * probability, 4};
+        increments = new double[] {0, probability / 2, probability, (1 + probability) / 2, 1};
+    }
+    
+    /**
+     * @return The quantile being estimated.
+     */
+    public double getProbability()
+    {
+        return probability;
+    }
+    
+    /**
+     * Add a value to the stream.
+     * @param value The value.
+     */
+    public void add(double value)
+    {
+        if(count < 5) {
+            heights[count++] = value;
+            if(count == 5) {
+                Arrays.sort(heights);
+            }
+            return;
+        }
+        
+        // Find the cell the value falls in, stretching the extremes.
+        int cell;
+        if(value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        }
+        else if(value >= heights[4]) {
+            heights[4] = value;
+            cell = 3;
+        }
+        else {
+            cell = 0;
+            while(value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for(int i = cell + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for(int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+        count++;
+        
+        // Move the middle markers towards their desired positions.
+        for(int i = 1; i <= 3; i++) {
+            double offset = desired[i] - positions[i];
+            if((offset >= 1 && positions[i + 1] - positions[i] > 1)
+               || (offset <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = offset > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+                if(heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                }
+                else {
+                    heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+    }
+    
+    /**
+     * @return The current estimate of the quantile, or NaN if no
+     *         values have been added.
+     */
+    public double getQuantile()
+    {
+        if(count == 0) {
+            return Double.NaN;
+        }
+        if(count < 5) {
+            // Too few values for the markers; use them directly.
+            double[] values = Arrays.copyOf(heights, count);
+            Arrays.sort(values);
+            return values[(int) Math.round(probability * (count - 1))];
+        }
+        return heights[2];
+    }
+    
+    /**
+     * The P-square parabolic prediction of a marker height.
+     */
+    private double parabolic(int i, int step)
+    {
+        double below = positions[i] - positions[i - 1];
+        double above = positions[i + 1] - positions[i];
+        return heights[i] + step / (double) (positions[i + 1] - positions[i - 1])
+               * ((below + step) * (heights[i + 1] - heights[i]) / above
+                  + (above - step) * (heights[i] - heights[i - 1]) / below);
+    }
+}
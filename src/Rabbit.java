@@ -1,5 +1,4 @@
 import java.util.List;
-import java.util.Random;
 
 /**
  * A simple model of a rabbit.
@@ -10,55 +9,50 @@ import java.util.Random;
  */
 public class Rabbit extends Animal
 {
-    // Characteristics shared by all rabbits (class variables).
+    private static final long serialVersionUID = 1L;
 
-    // The age at which a rabbit can start to breed.
-    private static int BREEDING_AGE = 5;
-    // The age to which a rabbit can live.
-    private static int MAX_AGE = 40;
-    // The likelihood of a rabbit breeding.
-    private static double BREEDING_PROBABILITY = 0.12;
-    // The maximum number of births.
-    private static int MAX_LITTER_SIZE = 4;
-    // A shared random number generator to control breeding.
-    private static Random rand = Randomizer.getRandom();
-    
-    // Individual characteristics (instance fields).
-    
-    // The rabbit's age.
-    private int age;
+    // The most food a rabbit can store, in steps.
+    private static final int MAX_FOOD_LEVEL = 12;
 
     /**
      * Create a new rabbit. A rabbit may be created with age
-     * zero (a new born) or with a random age.
+     * zero (a new born) or with a random age. When there is grass,
+     * the rabbit needs food, and starts with a food level like a
+     * predator; see Simulator.setGrass().
      * 
-     * @param randomAge If true, the rabbit will have a random age.
+     * @param randomAge If true, the rabbit will have a random age and food level.
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
     public Rabbit(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        age = 0;
+        super(Species.RABBIT, field, location);
         if(randomAge) {
-            age = rand.nextInt(MAX_AGE);
+            setAge(randomInt(Randomizer.AGE, getParameters().getMaxAge()));
+        }
+        if(getSimulator().getGrass() != null) {
+            startEating(randomAge);
         }
     }
     
-    public static void setBreedingAge(int newbreedingage){
-    	BREEDING_AGE = newbreedingage;
-    }
-    
-    public static void setMaxAge(int newmaxage){
-    	MAX_AGE = newmaxage;
-    }
-    
-    public static void setBreedingProbability(double newprobability){
-    	BREEDING_PROBABILITY = newprobability;
+    /**
+     * Start to need food, with the food level of a new born or, if
+     * randomLevel is set, a random one up to that.
+     * @param randomLevel Whether to draw the food level.
+     */
+    void startEating(boolean randomLevel)
+    {
+        int level = Species.RABBIT.getBirthFoodLevel();
+        setFoodLevel(randomLevel ? randomInt(Randomizer.FOOD, level) : level);
     }
     
-    public static void setMaxLitterSize(int maxlittersize){
-    	MAX_LITTER_SIZE = maxlittersize;
+    /**
+     * @return A new set of parameters with the default characteristics
+     *         of rabbits; see Species.
+     */
+    public static SpeciesParameters createParameters()
+    {
+        return Species.RABBIT.createParameters();
     }
     
     /**
@@ -68,13 +62,30 @@ public class Rabbit extends Animal
      */
     public void act(List<Animal> newRabbits)
     {
-        incrementAge();
+        act(getSimulator().getKernel(getSpeciesId()), newRabbits);
+    }
+    
+    /**
+     * Act with the given kernel of the species for this step.
+     * @param kernel The kernel of the rabbits.
+     * @param newRabbits A list to return newly born rabbits.
+     */
+    public void act(SpeciesKernel kernel, List<Animal> newRabbits)
+    {
         if(isAlive()) {
-            giveBirth(newRabbits);            
-            // Try to move into a free location.
-            Location newLocation = getField().freeAdjacentLocation(getLocation());
+            giveBirth(kernel, newRabbits);            
+            // Try to move into a free location, away from predators
+            // if they have left their scent.
+            Location newLocation;
+            if(getSimulator().isScented()) {
+                newLocation = freeLocationByScent(kernel.getPredators(), false);
+            }
+            else {
+                newLocation = getField().freeAdjacentLocation(getLocation());
+            }
             if(newLocation != null) {
                 setLocation(newLocation);
+                graze();
             }
             else {
                 // Overcrowding.
@@ -82,31 +93,36 @@ public class Rabbit extends Animal
             }
         }
     }
-
+    
     /**
-     * Increase the age.
-     * This could result in the rabbit's death.
+     * Eat the grass at the rabbit's location, if there is grass.
      */
-    private void incrementAge()
+    private void graze()
     {
-        age++;
-        if(age > MAX_AGE) {
-            setDead();
+        GrassLayer grass = getSimulator().getGrass();
+        if(grass != null) {
+            Location here = getLocation();
+            int eaten = grass.graze(here.getRow(), here.getCol(), getSimulator().getSteps());
+            setFoodLevel(Math.min(getFoodLevel() + eaten, MAX_FOOD_LEVEL));
         }
     }
-    
+
     /**
      * Check whether or not this rabbit is to give birth at this step.
      * New births will be made into free adjacent locations.
+     * @param kernel The kernel of the rabbits.
      * @param newRabbits A list to return newly born rabbits.
      */
-    private void giveBirth(List<Animal> newRabbits)
+    private void giveBirth(SpeciesKernel kernel, List<Animal> newRabbits)
     {
         // New rabbits are born into adjacent locations.
+        int births = breed(kernel);
+        if(births == 0) {
+            return;
+        }
         // Get a list of adjacent free locations.
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
         for(int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             Rabbit young = new Rabbit(false, field, loc);
@@ -117,23 +133,32 @@ public class Rabbit extends Animal
     /**
      * Generate a number representing the number of births,
      * if it can breed.
+     * @param kernel The kernel of the rabbits.
      * @return The number of births (may be zero).
      */
-    private int breed()
+    private int breed(SpeciesKernel kernel)
     {
         int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+        if(canBreed(kernel) && kernel.isScheduledBreeding()) {
+            births = scheduledBirths(getAge());
+        }
+        else if(canBreed(kernel)) {
+            // One word decides both whether and how many are born.
+            long word = randomWord(Randomizer.BREEDING, getAge());
+            if(Randomizer.hits(word, kernel.getBreedingThreshold())) {
+                births = Randomizer.litterSize(word, kernel.getMaxLitterSize());
+            }
         }
         return births;
     }
 
     /**
      * A rabbit can breed if it has reached the breeding age.
+     * @param kernel The kernel of the rabbits.
      * @return true if the rabbit can breed, false otherwise.
      */
-    private boolean canBreed()
+    private boolean canBreed(SpeciesKernel kernel)
     {
-        return age >= BREEDING_AGE;
+        return getAge() >= kernel.getBreedingAge();
     }
 }
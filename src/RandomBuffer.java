@@ -0,0 +1,81 @@
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * A buffer of random 64-bit words for one simulation.
+ * The words are generated in bulk from the simulation's random
+ * generator, so that the per-animal code only has to read the
+ * next entry of a primitive array.
+ */
+public class RandomBuffer implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The number of words generated per refill.
+    private static final int SIZE = 1024;
+    
+    // The generator the words are drawn from.
+    private Random rand;
+    // The buffered random words.
+    private long[] words;
+    // The index of the next word to hand out.
+    private int next;
+
+    /**
+     * Create an empty buffer. It is filled on first use.
+     * @param rand The generator to draw the words from.
+     */
+    public RandomBuffer(Random rand)
+    {
+        this.rand = rand;
+        words = new long[SIZE];
+        next = SIZE;
+    }
+    
+    /**
+     * Return the next random word, refilling the buffer first
+     * if it has run dry.
+     * @return A uniformly distributed random word.
+     */
+    public long nextWord()
+    {
+        if(next == SIZE) {
+            refill();
+        }
+        return words[next++];
+    }
+    
+    /**
+     * Fill the whole buffer with fresh random words.
+     */
+    public void refill()
+    {
+        for(int i = 0; i < SIZE; i++) {
+            words[i] = rand.nextLong();
+        }
+        next = 0;
+    }
+    
+    /**
+     * Create a copy of this buffer that hands out the same words.
+     * @param copyRand A generator in the same state as this buffer's,
+     *                 to draw the words from after those buffered.
+     * @return The copy.
+     */
+    public RandomBuffer copy(Random copyRand)
+    {
+        RandomBuffer copy = new RandomBuffer(copyRand);
+        copy.words = words.clone();
+        copy.next = next;
+        return copy;
+    }
+    
+    /**
+     * Throw away the buffered words, for instance after the
+     * generator has been reseeded.
+     */
+    public void clear()
+    {
+        next = SIZE;
+    }
+}
@@ -1,50 +1,334 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Random;
 
 /**
  * Provide control over the randomization of the simulation.
+ * Every simulation has its own Randomizer, so that simulations
+ * running side by side do not share a random generator.
+ * 
+ * In common-random-numbers mode every animal draws from streams of
+ * its own, one per purpose, instead of from the shared generator.
+ * An animal is identified by where and when it was born, so two runs
+ * with the same seed but different parameters give the same animals
+ * the same random numbers for as long as their histories agree, and
+ * differences between the runs come from the parameters rather than
+ * from noise.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Randomizer
+public class Randomizer implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // The default seed for control of randomization.
     private static final int SEED = 1111;
-    // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
-    // Determine whether a shared random generator is to be provided.
-    private static final boolean useShared = true;
+    // The increment of the SplitMix64 generator, used to spread
+    // stream indices over the 64-bit words.
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    // The purposes of common random numbers; at most eight.
+    // The initial placement of animals in populate().
+    public static final int PLACEMENT = 0;
+    // The random age of an initial animal.
+    public static final int AGE = 1;
+    // The random food level of an initial animal.
+    public static final int FOOD = 2;
+    // The breeding decision at a given age.
+    public static final int BREEDING = 3;
+    // The breeding age drawn ahead with scheduled breeding.
+    public static final int BREEDING_SCHEDULE = 4;
+    // The shuffles of adjacent locations.
+    public static final int MOVE = 5;
+    // The waiting times of the continuous-time engine.
+    public static final int ACT = 6;
+    // The order in which runs of animals of one species act.
+    public static final int ORDER = 7;
+    
+    // The seed of this randomizer.
+    private long seed;
+    // The random generator of the simulation.
+    private Random rand;
+    // A buffer of random words drawn from rand.
+    private RandomBuffer buffer;
+    // Whether animals draw from streams of their own.
+    private boolean commonRandomNumbers;
 
     /**
-     * Constructor for objects of class Randomizer
+     * Create a randomizer with the default seed.
      */
     public Randomizer()
     {
+        this(SEED);
+    }
+    
+    /**
+     * Create a randomizer with the given seed.
+     * @param seed The seed of the random generator.
+     */
+    public Randomizer(long seed)
+    {
+        this.seed = seed;
+        rand = new Random(seed);
+        buffer = new RandomBuffer(rand);
     }
 
+    /**
+     * Create a copy of this randomizer in the same state, which gives
+     * the same random numbers from now on.
+     * @return The copy.
+     */
+    public Randomizer copy()
+    {
+        Randomizer copy = new Randomizer(seed);
+        copy.rand = copyOf(rand);
+        copy.buffer = buffer.copy(copy.rand);
+        copy.commonRandomNumbers = commonRandomNumbers;
+        return copy;
+    }
+    
     /**
      * Provide a random generator.
      * @return A random object.
      */
-    public static Random getRandom()
+    public Random getRandom()
+    {
+        return rand;
+    }
+    
+    /**
+     * Provide the buffer of random words of this randomizer.
+     * The buffer is refilled in bulk whenever it runs dry.
+     * @return The random buffer.
+     */
+    public RandomBuffer getBuffer()
+    {
+        return buffer;
+    }
+    
+    /**
+     * @return The seed of this randomizer.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+    
+    /**
+     * @return true if animals draw from streams of their own.
+     */
+    public boolean isCommonRandomNumbers()
+    {
+        return commonRandomNumbers;
+    }
+    
+    /**
+     * Choose between the shared generator and common random numbers.
+     * This should be set before the field is populated.
+     * @param common true to give every animal streams of its own.
+     */
+    public void setCommonRandomNumbers(boolean common)
+    {
+        commonRandomNumbers = common;
+    }
+    
+    /**
+     * Return the stream key of the animal born at the given step and
+     * location. Different places or steps give different keys.
+     * @param step The step of birth.
+     * @param row The row of the location, below 2^20.
+     * @param col The column of the location, below 2^20.
+     * @return The stream key.
+     */
+    public long stream(int step, int row, int col)
+    {
+        return mix(mix(seed) ^ (((long) step << 40) | ((long) row << 20) | col));
+    }
+    
+    /**
+     * Return a word of a common random number stream. The same
+     * stream, purpose and index always give the same word.
+     * @param stream A key from stream().
+     * @param purpose What the word is for, such as MOVE.
+     * @param index The number of the word within the purpose.
+     * @return A uniformly distributed random word.
+     */
+    public static long word(long stream, int purpose, long index)
+    {
+        return mix(stream + GOLDEN_GAMMA * ((index << 3) + purpose + 1));
+    }
+    
+    /**
+     * Take a uniform number between 0 (inclusive) and bound (exclusive)
+     * from the high 32 bits of a random word.
+     * @param word A random word.
+     * @param bound The upper bound, which must be positive.
+     * @return The number.
+     */
+    public static int below(long word, int bound)
+    {
+        return (int) (((word >>> 32) * bound) >>> 32);
+    }
+    
+    /**
+     * Take a uniform number in [0, 1) from a random word.
+     * @param word A random word.
+     * @return The number.
+     */
+    public static double unit(long word)
     {
-        if(useShared) {
-            return rand;
+        return (word >>> 11) * 0x1.0p-53;
+    }
+    
+    /**
+     * Convert a probability into a threshold for the high 32 bits
+     * of a random word, for use with hits().
+     * @param probability The probability, between 0 and 1.
+     * @return The threshold matching the probability.
+     */
+    public static long probabilityThreshold(double probability)
+    {
+        if(probability <= 0) {
+            return 0;
+        }
+        if(probability >= 1) {
+            return 1L << 32;
+        }
+        return (long) (probability * (1L << 32));
+    }
+    
+    /**
+     * Test a random word against a probability threshold.
+     * Only the high 32 bits of the word are used, so the low
+     * bits remain free for litterSize().
+     * @param word A random word.
+     * @param threshold A threshold from probabilityThreshold().
+     * @return true with the probability the threshold was made for.
+     */
+    public static boolean hits(long word, long threshold)
+    {
+        return (word >>> 32) < threshold;
+    }
+    
+    /**
+     * Take a litter size from the low 32 bits of a random word.
+     * @param word A random word.
+     * @param maxLitterSize The maximum number of births.
+     * @return A number of births between 1 and maxLitterSize.
+     */
+    public static int litterSize(long word, int maxLitterSize)
+    {
+        return (int) (((word & 0xFFFFFFFFL) * maxLitterSize) >>> 32) + 1;
+    }
+    
+    /**
+     * Draw the number of Bernoulli trials up to and including the
+     * first success, for trials with the given success probability.
+     * @param probability The success probability of each trial.
+     * @return The number of trials, at least 1, or Long.MAX_VALUE if
+     *         the probability is zero.
+     */
+    public long geometric(double probability)
+    {
+        return geometric(probability, buffer.nextWord());
+    }
+    
+    /**
+     * Draw the number of Bernoulli trials up to and including the
+     * first success from the given random word.
+     * @param probability The success probability of each trial.
+     * @param word A random word.
+     * @return The number of trials, at least 1, or Long.MAX_VALUE if
+     *         the probability is zero.
+     */
+    public static long geometric(double probability, long word)
+    {
+        if(probability >= 1) {
+            return 1;
         }
-        else {
-            return new Random();
+        if(probability <= 0) {
+            return Long.MAX_VALUE;
         }
+        double trials = Math.floor(Math.log(openUnit(word)) / Math.log1p(-probability)) + 1;
+        return trials >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) trials;
     }
     
     /**
-     * Reset the randomization.
-     * This will have no effect if randomization is not through
-     * a shared Random generator.
+     * Draw a waiting time from the exponential distribution.
+     * @param rate The number of events per unit of time.
+     * @return The time until the next event.
      */
-    public static void reset()
+    public double exponential(double rate)
     {
-        if(useShared) {
-            rand.setSeed(SEED);
+        return exponential(rate, buffer.nextWord());
+    }
+    
+    /**
+     * Draw a waiting time from the exponential distribution, using
+     * the given random word.
+     * @param rate The number of events per unit of time.
+     * @param word A random word.
+     * @return The time until the next event.
+     */
+    public static double exponential(double rate, long word)
+    {
+        return -Math.log(openUnit(word)) / rate;
+    }
+    
+    /**
+     * Reset the randomization to its seed.
+     */
+    public void reset()
+    {
+        rand.setSeed(seed);
+        buffer.clear();
+    }
+    
+    /**
+     * @return A uniform number in (0, 1] taken from a random word, so
+     *         that its logarithm is finite.
+     */
+    private static double openUnit(long word)
+    {
+        return ((word >>> 11) + 1) * 0x1.0p-53;
+    }
+    
+    /**
+     * Copy a random generator with its state. Random does not give
+     * access to its state, but it can be serialized.
+     */
+    private static Random copyOf(Random rand)
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(rand);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return (Random) in.readObject();
+        }
+        catch(IOException e) {
+            // Cannot happen in memory.
+            throw new IllegalStateException(e);
         }
+        catch(ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Scramble a word with the SplitMix64 finaliser. Every input gives
+     * a different output, and neighbouring inputs give unrelated ones.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
@@ -0,0 +1,323 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of simulation results on disk, so that a run that has been
+ * done before need not be done again. Results are kept under a key
+ * that describes the run completely, normally the history of the
+ * simulator followed by what was run; see Simulator.getHistory().
+ * Two kinds of result can be kept: the population series of a
+ * headless run as comma-separated values, and the whole state of a
+ * simulator at the end of a run.
+ *
+ * Each entry is a file named after the SHA-256 hash of its key. The
+ * key is stored in the file too, and checked on reading. When the
+ * files take more room than the budget, the least recently used ones
+ * are deleted. Entries live in a directory named after VERSION, such
+ * as v1, and the entries of other versions are deleted when a cache
+ * is opened.
+ *
+ * A cache that cannot be read or written behaves as an empty one;
+ * the run is then simply done again.
+ */
+public class ResultCache
+{
+    // The version of the simulation model, a whole number. Change it
+    // whenever the model changes in a way that gives different results,
+    // or the fields of a class kept in a state entry change: those
+    // classes have a fixed serialVersionUID, so that entries stay
+    // readable when the classes are compiled again.
+    public static final String VERSION = "1";
+    // The default directory of the cache.
+    public static final String DEFAULT_DIRECTORY = ".simcache";
+    // The default size budget in bytes.
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    // The extension of population series entries.
+    private static final String SERIES = ".csv.gz";
+    // The extension of simulator state entries.
+    private static final String STATE = ".state.gz";
+
+    // The directory of the entries of this version.
+    private File directory;
+    // The most room the entries may take, in bytes.
+    private long budget;
+
+    /**
+     * Open a cache, creating its directory if needed.
+     * @param root The directory of the cache.
+     * @param budget The most room the entries may take, in bytes.
+     */
+    public ResultCache(File root, long budget)
+    {
+        this.budget = budget;
+        directory = new File(root, "v" + VERSION);
+        directory.mkdirs();
+        File[] versions = root.listFiles();
+        if(versions != null) {
+            for(File version : versions) {
+                if(version.isDirectory() && version.getName().matches("v[0-9]+")
+                        && !version.equals(directory)) {
+                    deleteEntries(version);
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up the population series of a run.
+     * @param key The description of the run.
+     * @return The series as comma-separated values, or null if it is
+     *         not in the cache.
+     */
+    public String getSeries(String key)
+    {
+        File file = entry(key, SERIES);
+        if(!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+            try {
+                if(!key.equals(in.readLine())) {
+                    return null;
+                }
+                StringBuilder series = new StringBuilder();
+                String line;
+                while((line = in.readLine()) != null) {
+                    series.append(line).append('\n');
+                }
+                touch(file);
+                return series.toString();
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch(IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Store the population series of a run.
+     * @param key The description of the run.
+     * @param series The series as comma-separated values.
+     */
+    public void putSeries(String key, String series)
+    {
+        File file = entry(key, SERIES);
+        File temporary = temporary(file);
+        try {
+            Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temporary)), "UTF-8");
+            try {
+                out.write(key);
+                out.write('\n');
+                out.write(series);
+            }
+            finally {
+                out.close();
+            }
+            store(temporary, file);
+        }
+        catch(IOException e) {
+            temporary.delete();
+            System.err.println("Could not cache result: " + e);
+        }
+    }
+
+    /**
+     * Look up the state of a simulator at the end of a run.
+     * @param key The description of the run.
+     * @return A simulator in that state, without observers, or null
+     *         if it is not in the cache.
+     */
+    public Simulator getState(String key)
+    {
+        File file = entry(key, STATE);
+        if(!file.exists()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new FileInputStream(file)));
+            try {
+                if(!key.equals(in.readObject())) {
+                    return null;
+                }
+                Simulator simulator = (Simulator) in.readObject();
+                touch(file);
+                return simulator;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch(IOException e) {
+            // Also thrown if the classes have changed since the entry was made.
+            file.delete();
+            return null;
+        }
+        catch(ClassNotFoundException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Store the state of a simulator at the end of a run.
+     * @param key The description of the run.
+     * @param simulator The simulator.
+     */
+    public void putState(String key, Simulator simulator)
+    {
+        File file = entry(key, STATE);
+        File temporary = temporary(file);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeObject(key);
+                out.writeObject(simulator);
+            }
+            finally {
+                out.close();
+            }
+            store(temporary, file);
+        }
+        catch(IOException e) {
+            temporary.delete();
+            System.err.println("Could not cache result: " + e);
+        }
+    }
+
+    /**
+     * Return the hexadecimal SHA-256 hash of a key.
+     * @param key The key.
+     * @return The hash.
+     */
+    public static String hash(String key)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+        catch(IOException e) {
+            // Every Java platform has UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The file of the entry for a key.
+     */
+    private File entry(String key, String extension)
+    {
+        return new File(directory, hash(key) + extension);
+    }
+
+    /**
+     * @return A file to write an entry to before it is complete, so
+     *         that other processes never see half an entry.
+     */
+    private File temporary(File file)
+    {
+        return new File(directory, file.getName() + "." + System.nanoTime() + ".tmp");
+    }
+
+    /**
+     * Move a complete entry into place and make room for it.
+     */
+    private void store(File temporary, File file) throws IOException
+    {
+        file.delete();
+        if(!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot rename " + temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Mark an entry as used now.
+     */
+    private void touch(File file)
+    {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the least recently used entries until the rest fit in
+     * the budget.
+     */
+    private void evict()
+    {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        long total = 0;
+        for(File file : files) {
+            total += file.length();
+        }
+        if(total <= budget) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b)
+            {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for(int i = 0; i < files.length && total > budget; i++) {
+            if(!files[i].getName().endsWith(".tmp")) {
+                long length = files[i].length();
+                if(files[i].delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the entries of another version, and their directory if
+     * nothing else is in it.
+     */
+    private static void deleteEntries(File version)
+    {
+        File[] files = version.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                String name = file.getName();
+                if(name.endsWith(SERIES) || name.endsWith(STATE) || name.endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+        }
+        version.delete();
+    }
+}
@@ -0,0 +1,407 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The settings of one headless simulation run: the size of the field,
+ * the seed, the number of steps, the engine and any species parameters
+ * that differ from the defaults.
+ * 
+ * A configuration can be read from command-line arguments of the form
+ * name=value, for example:
+ * <pre>
+ *   depth=80 width=120 seed=1111 steps=500 engine=continuous
+ *   commonRandomNumbers=true order=spatial Fox.breedingProbability=0.1
+ * </pre>
+ * The species parameters are breedingAge, maxAge, breedingProbability,
+ * maxLitterSize and visionRadius. The order in which animals act is list, spatial,
+ * species or interleaved; see Simulator.setSpatialOrder() and
+ * Simulator.setSpeciesOrder(). Predators that see further than the
+ * adjacent locations pursue prey by a search of their own,
+ * pursuit=nearest, or by distance fields shared by all of them,
+ * pursuit=distance; see Simulator.setDistancePursuit(). With
+ * scent=true animals leave scent and move by it; see Simulator.setScent().
+ * With grass=true rabbits need food and graze; see Simulator.setGrass().
+ * With terrain=file the locations blocked in an image or raw bitmap
+ * cannot be entered; see Terrain.
+ */
+public class RunConfiguration
+{
+    // The depth and width of the field.
+    private int depth, width;
+    // The seed of the random generator.
+    private long seed;
+    // The number of steps to run for.
+    private int steps;
+    // Whether to run the continuous-time engine instead of stepping.
+    private boolean continuous;
+    // Whether breeding ages are drawn ahead.
+    private boolean scheduledBreeding;
+    // Whether every animal draws from random streams of its own.
+    private boolean commonRandomNumbers;
+    // The order in which animals act: list, spatial, species or interleaved.
+    private String order;
+    // Whether predators pursue prey by the distance fields.
+    private boolean distancePursuit;
+    // Whether animals leave and follow scent.
+    private boolean scent;
+    // Whether rabbits need food and graze.
+    private boolean grass;
+    // The file of the terrain, or null if no location is blocked.
+    private String terrain;
+    // The species parameters that differ from the defaults, by name.
+    private Map<String, String> parameters;
+    // Any other settings, such as the output file.
+    private Map<String, String> options;
+
+    /**
+     * Create a configuration with the default settings.
+     */
+    public RunConfiguration()
+    {
+        depth = 80;
+        width = 120;
+        seed = 1111;
+        steps = 500;
+        continuous = false;
+        scheduledBreeding = false;
+        commonRandomNumbers = false;
+        order = "list";
+        distancePursuit = false;
+        scent = false;
+        grass = false;
+        terrain = null;
+        parameters = new TreeMap<String, String>();
+        options = new TreeMap<String, String>();
+    }
+    
+    /**
+     * Read a configuration from name=value arguments.
+     * @param args The arguments.
+     * @return The configuration.
+     * @throws IllegalArgumentException If an argument is not understood.
+     */
+    public static RunConfiguration parse(String[] args)
+    {
+        RunConfiguration configuration = new RunConfiguration();
+        for(String arg : args) {
+            int split = arg.indexOf('=');
+            if(split <= 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            configuration.set(arg.substring(0, split), arg.substring(split + 1));
+        }
+        return configuration;
+    }
+    
+    /**
+     * Change one setting.
+     * @param name The name of the setting, e.g. "seed" or "Fox.maxAge".
+     * @param value The new value.
+     * @throws IllegalArgumentException If the setting is not understood.
+     */
+    public void set(String name, String value)
+    {
+        if(name.equals("depth")) {
+            depth = Integer.parseInt(value);
+        }
+        else if(name.equals("width")) {
+            width = Integer.parseInt(value);
+        }
+        else if(name.equals("seed")) {
+            seed = Long.parseLong(value);
+        }
+        else if(name.equals("steps")) {
+            steps = Integer.parseInt(value);
+        }
+        else if(name.equals("engine")) {
+            if(!value.equals("stepped") && !value.equals("continuous")) {
+                throw new IllegalArgumentException("Unknown engine: " + value);
+            }
+            continuous = value.equals("continuous");
+        }
+        else if(name.equals("scheduledBreeding")) {
+            scheduledBreeding = Boolean.parseBoolean(value);
+        }
+        else if(name.equals("commonRandomNumbers")) {
+            commonRandomNumbers = Boolean.parseBoolean(value);
+        }
+        else if(name.equals("order")) {
+            if(!value.equals("list") && !value.equals("spatial")
+                    && !value.equals("species") && !value.equals("interleaved")) {
+                throw new IllegalArgumentException("Unknown order: " + value);
+            }
+            order = value;
+        }
+        else if(name.equals("pursuit")) {
+            if(!value.equals("nearest") && !value.equals("distance")) {
+                throw new IllegalArgumentException("Unknown pursuit: " + value);
+            }
+            distancePursuit = value.equals("distance");
+        }
+        else if(name.equals("scent")) {
+            scent = Boolean.parseBoolean(value);
+        }
+        else if(name.equals("grass")) {
+            grass = Boolean.parseBoolean(value);
+        }
+        else if(name.equals("terrain")) {
+            terrain = value;
+        }
+        else if(name.indexOf('.') > 0) {
+            // Check the parameter now rather than halfway through a run.
+            apply(speciesClass(name), name.substring(name.indexOf('.') + 1), value, Rabbit.createParameters());
+            parameters.put(name, value);
+        }
+        else {
+            options.put(name, value);
+        }
+    }
+    
+    /**
+     * @return A copy of this configuration.
+     */
+    public RunConfiguration copy()
+    {
+        RunConfiguration copy = new RunConfiguration();
+        copy.depth = depth;
+        copy.width = width;
+        copy.seed = seed;
+        copy.steps = steps;
+        copy.continuous = continuous;
+        copy.scheduledBreeding = scheduledBreeding;
+        copy.commonRandomNumbers = commonRandomNumbers;
+        copy.order = order;
+        copy.distancePursuit = distancePursuit;
+        copy.scent = scent;
+        copy.grass = grass;
+        copy.terrain = terrain;
+        copy.parameters.putAll(parameters);
+        copy.options.putAll(options);
+        return copy;
+    }
+    
+    /**
+     * Return a copy of this configuration with another seed.
+     * @param newSeed The seed of the copy.
+     * @return The copy.
+     */
+    public RunConfiguration withSeed(long newSeed)
+    {
+        RunConfiguration copy = copy();
+        copy.seed = newSeed;
+        return copy;
+    }
+    
+    /**
+     * @return The parameters of every species with this configuration.
+     */
+    public Map<Class, SpeciesParameters> createParameters()
+    {
+        Map<Class, SpeciesParameters> species = new LinkedHashMap<Class, SpeciesParameters>();
+        for(Species kind : Species.all()) {
+            species.put(kind.getAnimalClass(), kind.createParameters());
+        }
+        for(Map.Entry<String, String> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            Class animalClass = speciesClass(name);
+            species.put(animalClass, apply(animalClass, name.substring(name.indexOf('.') + 1), entry.getValue(),
+                                           species.get(animalClass)));
+        }
+        return species;
+    }
+    
+    /**
+     * Create a simulator with this configuration, ready to run.
+     * @return The new simulator.
+     * @throws IllegalArgumentException If the terrain cannot be read
+     *                                  or does not fit the field.
+     */
+    public Simulator createSimulator()
+    {
+        Map<Class, SpeciesParameters> species = createParameters();
+        Randomizer randomizer = new Randomizer(seed);
+        randomizer.setCommonRandomNumbers(commonRandomNumbers);
+        Simulator simulator = new Simulator(depth, width, randomizer, species);
+        simulator.setScheduledBreeding(scheduledBreeding);
+        if(order.equals("spatial")) {
+            simulator.setSpatialOrder(true);
+        }
+        else if(!order.equals("list")) {
+            simulator.setSpeciesOrder(true, order.equals("interleaved"));
+        }
+        if(distancePursuit) {
+            simulator.setDistancePursuit(true);
+        }
+        if(scent) {
+            simulator.setScent(true);
+        }
+        if(grass) {
+            simulator.setGrass(true);
+        }
+        if(terrain != null) {
+            try {
+                simulator.setTerrain(Terrain.load(new File(terrain), depth, width));
+            }
+            catch(IOException e) {
+                throw new IllegalArgumentException("Cannot read the terrain " + terrain, e);
+            }
+        }
+        return simulator;
+    }
+    
+    /**
+     * Run a simulator created from this configuration for the
+     * configured number of steps, with the configured engine.
+     * @param simulator The simulator to run.
+     */
+    public void run(Simulator simulator)
+    {
+        run(simulator, null);
+    }
+    
+    /**
+     * Run a simulator created from this configuration for the
+     * configured number of steps, with the configured engine, until
+     * it is no longer viable or the stop condition is met.
+     * @param simulator The simulator to run.
+     * @param stop The condition to stop at, or null.
+     */
+    public void run(Simulator simulator, StopCondition stop)
+    {
+        if(continuous) {
+            simulator.simulateContinuous(steps, stop);
+        }
+        else {
+            simulator.simulate(steps, stop);
+        }
+    }
+    
+    public int getDepth()
+    {
+        return depth;
+    }
+    
+    public int getWidth()
+    {
+        return width;
+    }
+    
+    public long getSeed()
+    {
+        return seed;
+    }
+    
+    public int getSteps()
+    {
+        return steps;
+    }
+    
+    public boolean isContinuous()
+    {
+        return continuous;
+    }
+    
+    public boolean isScent()
+    {
+        return scent;
+    }
+    
+    public boolean isGrass()
+    {
+        return grass;
+    }
+    
+    /**
+     * Return a species parameter that differs from the default.
+     * @param name The name of the parameter, e.g. "Fox.maxAge".
+     * @return The value, or null if the default is used.
+     */
+    public String getParameter(String name)
+    {
+        return parameters.get(name);
+    }
+    
+    /**
+     * Return a setting that is not part of the simulation itself.
+     * @param name The name of the setting.
+     * @param defaultValue The value to use if the setting is not given.
+     * @return The value of the setting.
+     */
+    public String getOption(String name, String defaultValue)
+    {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+    
+    /**
+     * Return the settings of the simulation as name=value pairs in a
+     * fixed order, so that equal configurations give equal strings.
+     * Options such as the output file are left out.
+     */
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("depth=").append(depth);
+        buffer.append(" width=").append(width);
+        buffer.append(" seed=").append(seed);
+        buffer.append(" steps=").append(steps);
+        buffer.append(" engine=").append(continuous ? "continuous" : "stepped");
+        buffer.append(" scheduledBreeding=").append(scheduledBreeding);
+        buffer.append(" commonRandomNumbers=").append(commonRandomNumbers);
+        buffer.append(" order=").append(order);
+        buffer.append(" pursuit=").append(distancePursuit ? "distance" : "nearest");
+        buffer.append(" scent=").append(scent);
+        buffer.append(" grass=").append(grass);
+        if(terrain != null) {
+            buffer.append(" terrain=").append(terrain);
+        }
+        for(Map.Entry<String, String> entry : parameters.entrySet()) {
+            buffer.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return buffer.toString();
+    }
+    
+    /**
+     * Find the species a parameter name such as "Fox.maxAge" refers to.
+     */
+    private static Class speciesClass(String name)
+    {
+        String species = name.substring(0, name.indexOf('.'));
+        for(Species kind : Species.all()) {
+            if(kind.getAnimalClass().getName().equals(species)) {
+                return kind.getAnimalClass();
+            }
+        }
+        throw new IllegalArgumentException("Unknown species: " + species);
+    }
+    
+    /**
+     * Set one species parameter.
+     * @return The parameters with the new value.
+     */
+    private static SpeciesParameters apply(Class animalClass, String parameter, String value,
+                                           SpeciesParameters species)
+    {
+        if(parameter.equals("breedingAge")) {
+            return species.withBreedingAge(Integer.parseInt(value));
+        }
+        else if(parameter.equals("maxAge")) {
+            return species.withMaxAge(Integer.parseInt(value));
+        }
+        else if(parameter.equals("breedingProbability")) {
+            return species.withBreedingProbability(Double.parseDouble(value));
+        }
+        else if(parameter.equals("maxLitterSize")) {
+            return species.withMaxLitterSize(Integer.parseInt(value));
+        }
+        else if(parameter.equals("visionRadius")) {
+            return species.withVisionRadius(Integer.parseInt(value));
+        }
+        else {
+            throw new IllegalArgumentException("Unknown parameter of " + animalClass.getName() + ": " + parameter);
+        }
+    }
+}
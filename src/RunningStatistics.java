@@ -0,0 +1,96 @@
+/**
+ * Statistics of a stream of numbers that are updated as each number
+ * comes in, so that the numbers themselves need not be kept: the
+ * mean and variance with Welford's method, and a few quantiles with
+ * QuantileEstimators.
+ */
+public class RunningStatistics
+{
+    // The quantiles that are estimated.
+    public static final double[] QUANTILES = {0.05, 0.5, 0.95};
+    
+    // The number of values seen.
+    private long count;
+    // The mean of the values seen.
+    private double mean;
+    // The sum of squared differences from the mean.
+    private double squares;
+    // An estimator for each of the QUANTILES.
+    private QuantileEstimator[] quantiles;
+
+    /**
+     * Create empty statistics.
+     */
+    public RunningStatistics()
+    {
+        count = 0;
+        mean = 0;
+        squares = 0;
+        quantiles = new QuantileEstimator[QUANTILES.length];
+        for(int i = 0; i < QUANTILES.length; i++) {
+            quantiles[i] = new QuantileEstimator(QUANTILES[i]);
+        }
+    }
+    
+    /**
+     * Add a value.
+     * @param value The value.
+     */
+    public void add(double value)
+    {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        for(QuantileEstimator quantile : quantiles) {
+            quantile.add(value);
+        }
+    }
+    
+    /**
+     * @return The number of values seen.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+    
+    /**
+     * @return The mean of the values seen.
+     */
+    public double getMean()
+    {
+        return mean;
+    }
+    
+    /**
+     * @return The sample variance of the values seen, or 0 if fewer
+     *         than two values have been seen.
+     */
+    public double getVariance()
+    {
+        return count > 1 ? squares / (count - 1) : 0;
+    }
+    
+    /**
+     * Return the width of the 95% confidence interval of the mean,
+     * using the normal approximation.
+     * @return The width, or infinity if fewer than two values have been seen.
+     */
+    public double getConfidenceWidth()
+    {
+        if(count < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 2 * 1.96 * Math.sqrt(getVariance() / count);
+    }
+    
+    /**
+     * @param index The index of the quantile in QUANTILES.
+     * @return The estimate of that quantile.
+     */
+    public double getQuantile(int index)
+    {
+        return quantiles[index].getQuantile();
+    }
+}
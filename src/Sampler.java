@@ -0,0 +1,44 @@
+/**
+ * Tells an observer about every period steps of a simulation only, for
+ * statistics that are costly to gather and need not be gathered every
+ * step. Add the sampler to the simulation as an actor instead of
+ * adding the observer itself.
+ */
+public class Sampler implements Actor
+{
+    // The observer to tell.
+    private SimulatorObserver observer;
+    // The number of steps between two samples.
+    private int period;
+
+    /**
+     * Create a sampler.
+     * @param observer The observer to tell.
+     * @param period The number of steps between two samples.
+     */
+    public Sampler(SimulatorObserver observer, int period)
+    {
+        this.observer = observer;
+        this.period = period;
+    }
+
+    public int getPeriod()
+    {
+        return period;
+    }
+
+    public int getPhase()
+    {
+        return 0;
+    }
+
+    /**
+     * Tell the observer about the step.
+     * @param simulator The simulation.
+     * @param step The step that has just been simulated.
+     */
+    public void act(Simulator simulator, int step)
+    {
+        observer.showStatus(step, simulator.getField());
+    }
+}
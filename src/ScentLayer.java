@@ -0,0 +1,217 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The scent left in a field by the animals of one species. Every step
+ * each animal leaves some scent at its location; the scent then decays
+ * and spreads to the adjacent locations, through a 3x3 stencil over
+ * the whole layer.
+ *
+ * The layer is updated in place, row by row, keeping copies of the
+ * three rows the stencil reads, so it needs no second array the size
+ * of the field. A large layer is cut into bands of rows that are
+ * updated on threads of a pool shared by all layers; the rows at the
+ * edges of the bands are copied first, so that the bands do not see
+ * each other's writes. Within a row the loop over the columns has no
+ * branches, so that the compiler can turn it into vector instructions.
+ */
+public class ScentLayer implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The share of the scent that is left after a step.
+    private static final float DECAY = 0.9f;
+    // The share of the scent at a location that spreads to the eight
+    // adjacent locations in a step.
+    private static final float SPREAD = 0.5f;
+    // The weight of a location itself and of each adjacent one.
+    private static final float CENTRE = DECAY * (1 - SPREAD);
+    private static final float SIDE = DECAY * SPREAD / 8;
+    // The scent an animal leaves at its location each step.
+    private static final float DEPOSIT = 1;
+    // The least scent an animal notices.
+    public static final float NOTICED = 0.05f;
+    // The number of locations from which a layer is divided over threads.
+    private static final int PARALLEL_CELLS = 1 << 18;
+    // The threads shared by all layers, created when first needed.
+    private static ExecutorService pool;
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // The scent at each location, row by row.
+    private float[] values;
+
+    /**
+     * Create a layer without scent.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ScentLayer(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        values = new float[depth * width];
+    }
+
+    /**
+     * @return A copy of this layer, for a fork of the simulation.
+     */
+    public ScentLayer copy()
+    {
+        ScentLayer copy = new ScentLayer(depth, width);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        return copy;
+    }
+
+    /**
+     * Leave the scent of an animal at a location.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     */
+    public void deposit(int row, int col)
+    {
+        values[row * width + col] += DEPOSIT;
+    }
+
+    /**
+     * @param row The row of a location.
+     * @param col The column of the location.
+     * @return The scent at the location.
+     */
+    public float getScent(int row, int col)
+    {
+        return values[row * width + col];
+    }
+
+    /**
+     * Let the scent decay and spread for a step. Beyond the edges of
+     * the field the stencil sees the locations at the edge.
+     */
+    public void update()
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if(threads == 1 || depth * width < PARALLEL_CELLS || depth < 2 * threads) {
+            new Band(0, depth).call();
+            return;
+        }
+        List<Band> bands = new ArrayList<Band>();
+        for(int b = 0; b < threads; b++) {
+            bands.add(new Band(depth * b / threads, depth * (b + 1) / threads));
+        }
+        try {
+            for(Future<Object> done : getPool(threads).invokeAll(bands)) {
+                done.get();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while updating the scent", e);
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("The scent could not be updated", e.getCause());
+        }
+    }
+
+    /**
+     * @return The shared threads, created with the given number if needed.
+     */
+    private static synchronized ExecutorService getPool(int threads)
+    {
+        if(pool == null) {
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable task)
+                {
+                    Thread thread = new Thread(task, "ScentLayer");
+                    // The pool must not keep the program running.
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * A band of rows, updated on one thread. The rows just outside it
+     * are copied when the band is created, before any band is updated.
+     */
+    private class Band implements Callable<Object>
+    {
+        // The first row of the band and the row after its last.
+        private final int first, end;
+        // The rows just outside the band as they were.
+        private final float[] before, after;
+
+        Band(int first, int end)
+        {
+            this.first = first;
+            this.end = end;
+            before = copyRow(Math.max(first - 1, 0), new float[width]);
+            after = copyRow(Math.min(end, depth - 1), new float[width]);
+        }
+
+        public Object call()
+        {
+            float[] above = before;
+            float[] here = copyRow(first, new float[width]);
+            float[] below = new float[width];
+            for(int row = first; row < end; row++) {
+                if(row + 1 < end) {
+                    copyRow(row + 1, below);
+                }
+                else {
+                    // after is a copy of this row at the bottom edge.
+                    System.arraycopy(after, 0, below, 0, width);
+                }
+                stencil(above, here, below, row * width);
+                float[] spare = above;
+                above = here;
+                here = below;
+                below = spare;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Copy a row of the layer.
+     * @return The copy.
+     */
+    private float[] copyRow(int row, float[] copy)
+    {
+        System.arraycopy(values, row * width, copy, 0, width);
+        return copy;
+    }
+
+    /**
+     * Write one row of the layer from the old values of it and of the
+     * rows above and below.
+     */
+    private void stencil(float[] above, float[] here, float[] below, int start)
+    {
+        if(width == 1) {
+            values[start] = CENTRE * here[0] + SIDE * (3 * above[0] + 2 * here[0] + 3 * below[0]);
+            return;
+        }
+        float[] out = values;
+        int last = width - 1;
+        out[start] = CENTRE * here[0]
+                     + SIDE * (2 * above[0] + above[1] + here[0] + here[1] + 2 * below[0] + below[1]);
+        for(int col = 1; col < last; col++) {
+            float around = above[col - 1] + above[col] + above[col + 1]
+                           + here[col - 1] + here[col + 1]
+                           + below[col - 1] + below[col] + below[col + 1];
+            out[start + col] = CENTRE * here[col] + SIDE * around;
+        }
+        out[start + last] = CENTRE * here[last]
+                            + SIDE * (above[last - 1] + 2 * above[last] + here[last - 1] + here[last]
+                                      + below[last - 1] + 2 * below[last]);
+    }
+}
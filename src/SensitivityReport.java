@@ -0,0 +1,260 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compare two parameter settings with paired runs. Every replica runs
+ * the base configuration and the varied one with the same seed, and the
+ * report gives the mean and confidence interval of the difference in
+ * final population of every species.
+ * 
+ * With common random numbers the two runs of a pair see the same random
+ * numbers wherever their histories agree, so the difference within a
+ * pair is mostly due to the parameters. Its variance is then much
+ * smaller than that of two independent runs, and so is the number of
+ * replicas needed for a given confidence interval. The report shows the
+ * ratio of the two variances, which is that saving.
+ */
+public class SensitivityReport
+{
+    // The smallest number of pairs before stopping early.
+    private static final int MIN_REPLICAS = 10;
+    
+    // The configuration without the change.
+    private RunConfiguration base;
+    // The configuration with the change.
+    private RunConfiguration varied;
+    // The maximum number of pairs.
+    private int replicas;
+    // The number of pairs run at the same time.
+    private int threads;
+    // The confidence interval width to stop at, or 0 to run all pairs.
+    private double targetWidth;
+    // The species, in column order.
+    private List<Class> species;
+    // The final populations of each species in the base runs.
+    private RunningStatistics[] baseStatistics;
+    // The final populations of each species in the varied runs.
+    private RunningStatistics[] variedStatistics;
+    // The varied minus the base populations of each species.
+    private RunningStatistics[] differences;
+    // The number of pairs merged so far.
+    private int completed;
+
+    /**
+     * Create a sensitivity report.
+     * @param base The configuration without the change; pair i uses
+     *             its seed plus i.
+     * @param varied The configuration with the change.
+     * @param replicas The maximum number of pairs.
+     * @param threads The number of pairs run at the same time.
+     * @param targetWidth The confidence interval width of the differences
+     *                    to stop at, or 0 to run all pairs.
+     */
+    public SensitivityReport(RunConfiguration base, RunConfiguration varied,
+                             int replicas, int threads, double targetWidth)
+    {
+        this.base = base;
+        this.varied = varied;
+        this.replicas = replicas;
+        this.threads = threads;
+        this.targetWidth = targetWidth;
+        species = base.createSimulator().getSpecies();
+        baseStatistics = createStatistics();
+        variedStatistics = createStatistics();
+        differences = createStatistics();
+        completed = 0;
+    }
+    
+    /**
+     * Run the pairs and wait for them to finish.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws ExecutionException If a run failed.
+     */
+    public void run() throws InterruptedException, ExecutionException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<int[][]> service = new ExecutorCompletionService<int[][]>(pool);
+        try {
+            int submitted = 0;
+            int running = 0;
+            while(submitted < replicas && running < threads) {
+                service.submit(pair(submitted++));
+                running++;
+            }
+            while(running > 0) {
+                int[][] counts = service.take().get();
+                running--;
+                merge(counts);
+                if(submitted < replicas && !isPrecise()) {
+                    service.submit(pair(submitted++));
+                    running++;
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * @return The number of pairs that have been run.
+     */
+    public int getCompleted()
+    {
+        return completed;
+    }
+    
+    /**
+     * @return true if enough pairs have been run for the confidence
+     *         interval of every difference to be narrower than the
+     *         target width.
+     */
+    public boolean isPrecise()
+    {
+        if(targetWidth <= 0 || completed < MIN_REPLICAS) {
+            return false;
+        }
+        for(RunningStatistics difference : differences) {
+            if(difference.getConfidenceWidth() > targetWidth) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Write the report as comma-separated values, one line per species.
+     * The replica ratio is the variance of the difference of two
+     * independent runs over that of a pair.
+     * @param out Where to write.
+     */
+    public void write(PrintStream out)
+    {
+        out.println("species,n,base,varied,difference,ciWidth,pairedVariance,unpairedVariance,replicaRatio");
+        for(int i = 0; i < species.size(); i++) {
+            double paired = differences[i].getVariance();
+            double unpaired = baseStatistics[i].getVariance() + variedStatistics[i].getVariance();
+            StringBuilder line = new StringBuilder(species.get(i).getName());
+            line.append(',').append(differences[i].getCount());
+            line.append(',').append(baseStatistics[i].getMean());
+            line.append(',').append(variedStatistics[i].getMean());
+            line.append(',').append(differences[i].getMean());
+            line.append(',').append(differences[i].getConfidenceWidth());
+            line.append(',').append(paired);
+            line.append(',').append(unpaired);
+            line.append(',').append(paired > 0 ? unpaired / paired : Double.POSITIVE_INFINITY);
+            out.println(line);
+        }
+    }
+    
+    /**
+     * Create the task that runs one pair. It returns the final
+     * populations of the base run and of the varied run.
+     * @param index The number of the pair.
+     */
+    private Callable<int[][]> pair(int index)
+    {
+        final RunConfiguration first = base.withSeed(base.getSeed() + index);
+        final RunConfiguration second = varied.withSeed(base.getSeed() + index);
+        return new Callable<int[][]>() {
+            public int[][] call()
+            {
+                return new int[][] {finalCounts(first), finalCounts(second)};
+            }
+        };
+    }
+    
+    /**
+     * Run a configuration and return the final population of every species.
+     */
+    private static int[] finalCounts(RunConfiguration configuration)
+    {
+        Simulator simulator = configuration.createSimulator();
+        configuration.run(simulator);
+        List<Class> species = simulator.getSpecies();
+        FieldStats stats = simulator.getStats();
+        int[] counts = new int[species.size()];
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = stats.getCount(species.get(i));
+        }
+        return counts;
+    }
+    
+    /**
+     * Add the final populations of a pair to the statistics.
+     */
+    private void merge(int[][] counts)
+    {
+        for(int i = 0; i < species.size(); i++) {
+            baseStatistics[i].add(counts[0][i]);
+            variedStatistics[i].add(counts[1][i]);
+            differences[i].add(counts[1][i] - counts[0][i]);
+        }
+        completed++;
+    }
+    
+    /**
+     * @return Empty statistics for every species.
+     */
+    private RunningStatistics[] createStatistics()
+    {
+        RunningStatistics[] statistics = new RunningStatistics[species.size()];
+        for(int i = 0; i < statistics.length; i++) {
+            statistics[i] = new RunningStatistics();
+        }
+        return statistics;
+    }
+    
+    /**
+     * Run a sensitivity report from the command line. The arguments are
+     * those of EnsembleRunner, plus one or more changes of the form
+     * vary.Fox.maxAge=200 that make up the varied configuration.
+     * Common random numbers are used unless commonRandomNumbers=false
+     * is given.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        List<String> settings = new ArrayList<String>();
+        List<String> changes = new ArrayList<String>();
+        settings.add("commonRandomNumbers=true");
+        for(String arg : args) {
+            if(arg.startsWith("vary.")) {
+                changes.add(arg.substring("vary.".length()));
+            }
+            else {
+                settings.add(arg);
+            }
+        }
+        if(changes.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one vary.Species.parameter=value");
+        }
+        RunConfiguration base = RunConfiguration.parse(settings.toArray(new String[settings.size()]));
+        settings.addAll(changes);
+        RunConfiguration varied = RunConfiguration.parse(settings.toArray(new String[settings.size()]));
+        int replicas = Integer.parseInt(base.getOption("replicas", "100"));
+        int threads = Integer.parseInt(base.getOption("threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        double width = Double.parseDouble(base.getOption("ciWidth", "0"));
+        
+        long start = System.nanoTime();
+        SensitivityReport report = new SensitivityReport(base, varied, replicas, threads, width);
+        report.run();
+        
+        String file = base.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        report.write(out);
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        System.err.println("Pairs: " + report.getCompleted() + ", seconds: " + (System.nanoTime() - start) / 1e9);
+    }
+}
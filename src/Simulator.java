@@ -1,20 +1,50 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.awt.Color;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.ListIterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A simple predator-prey simulator, based on a rectangular field
  * containing rabbits and foxes.
  * 
+ * All state of a simulation, including the parameters of each species
+ * and the random generator, belongs to its Simulator object. Several
+ * simulations can therefore run at the same time, each on its own
+ * thread, without affecting each other.
+ * 
+ * The simulator does not depend on a user interface. Progress is
+ * reported to any SimulatorObservers that have been added, such as a
+ * SimulatorView; see SimulatorView.main for the graphical version and
+ * HeadlessRunner.main for the command-line version.
+ * 
+ * A simulator keeps a history of everything that has been done to it
+ * since it was created, from which its state follows. The history is
+ * the key under which results are kept in a ResultCache, and a whole
+ * simulator can be serialized to store its state there.
+ * 
+ * A simulator can be forked into branches that continue from the same
+ * state, for instance to try out an intervention. Forking is cheap: the
+ * branches share the tiles of the field and the animals, and each
+ * branch copies a tile or an animal only when it first changes it. So
+ * the memory used by a branch grows with how far it has diverged.
+ * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Simulator
+public class Simulator implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     // Constants representing configuration information for the simulation.
     // The default width for the grid.
     private static final int DEFAULT_WIDTH = 120;
@@ -28,97 +58,998 @@ public class Simulator
     private static final double BEER_CREATION_PROBABILITY = 0.03;
     // the probability that a jager will be created in any given grid position.
     private static final double JAGER_CREATION_PROBABILITY = 0.02;
+    // The number of random locations an immigrant tries before it is lost.
+    private static final int LANDING_ATTEMPTS = 10;
+    // The number of animals of one species that act in a row when the
+    // species are interleaved.
+    private static final int RUN_LENGTH = 256;
     
-    private static String ziekte;
+    private String ziekte;
     
-    private static int counter;
+    private int counter;
 
     // List of animals in the field.
-    private static List<Animal> animals;
+    private List<Animal> animals;
     // The current state of the field.
-    private static Field field;
+    private Field field;
     // The current step of the simulation.
-    private static int step;
-    // A graphical view of the simulation.
-    private static SimulatorView view;
+    private int step;
+    // The observers told about each step of the simulation. They are
+    // not part of the state of the simulation, so are not serialized.
+    private transient List<SimulatorObserver> observers;
+    // The processes other than the animals, such as the weather. Like
+    // the observers they are not serialized.
+    private transient ActorScheduler actors;
+    // The population counts of the simulation.
+    private FieldStats stats;
+    // The random generator of the simulation.
+    private Randomizer randomizer;
+    // The parameters of each species in use for the current step.
+    private Map<Class, SpeciesParameters> parameters;
+    // The parameters of each species as last published, to be taken
+    // into use at the start of the next step; see publishParameters().
+    private AtomicReference<Map<Class, SpeciesParameters>> published;
+    // Whether breeding ages are drawn ahead from the geometric distribution
+    // instead of drawing a Bernoulli trial every step.
+    private boolean scheduledBreeding;
+    // The steps at which animals die of old age or hunger.
+    private TimingWheel deaths;
+    // The parameter version the timing wheel was built for.
+    private int deathScheduleVersion;
+    // Everything done to the simulation since it was created, except
+    // the steps since the last event; see getHistory().
+    private StringBuilder history;
+    // The number of steps run since the last event in the history.
+    private int stepsSinceEvent;
+    // The species parameters last written to the history.
+    private String recordedParameters;
+    // The parameter version recordedParameters was checked at.
+    private int recordedVersion;
+    // Bumped whenever the simulation is forked, so that the animals
+    // it had before become shared; see Animal.isOwnedBy().
+    private int generation;
+    // The copies made by own() since the last step ended, by the
+    // shared animal they replace, for the orders that do not put them
+    // into the list of animals while acting.
+    private transient Map<Animal, Animal> copies;
+    // Whether animals act row by row in the order of their locations,
+    // instead of in the order of the list.
+    private boolean spatialOrder;
+    // Whether the spatial order is found by sorting the animals
+    // instead of by walking the field.
+    private boolean sortedOrder;
+    // Whether animals act species by species, and whether runs of the
+    // species are interleaved at random; see setSpeciesOrder().
+    private boolean speciesOrder;
+    private boolean interleavedOrder;
+    // The animals of each species, by species id, while they act in
+    // species order, and the number of them.
+    private transient Animal[][] batches;
+    private transient int[] batchSizes;
+    // The kernel of each species, by id, for the current step.
+    private transient SpeciesKernel[] kernels;
+    // Whether predators step towards prey in sight by the distance
+    // fields, and the field of each species hunted that way, by id.
+    private boolean distancePursuit;
+    private transient DistanceField[] distanceFields;
+    // The scent of each species, by id, or null if animals do not
+    // follow scent; see setScent().
+    private ScentLayer[] scents;
+    // The grass rabbits graze, or null if they need no food; see setGrass().
+    private GrassLayer grass;
+    // The time spent in each phase of the steps.
+    private transient StepPhases phases;
+    // The rows this simulation looks after; see setRegion().
+    private int firstRow;
+    private int endRow;
+    // The animals born during the current step.
+    private List<Animal> newAnimals;
+    
+    /**
+     * Construct a simulation field with default size.
+     */
+    public Simulator()
+    {
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+    
+    /**
+     * Create a simulation field with the given size.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     */
+    public Simulator(int depth, int width)
+    {
+        this(depth, width, new Randomizer());
+    }
+    
+    /**
+     * Create a simulation field with the given size and randomizer.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param randomizer The random generator of the simulation.
+     */
+    public Simulator(int depth, int width, Randomizer randomizer)
+    {
+        this(depth, width, randomizer, null);
+    }
+    
+    /**
+     * Create a simulation field with the given size, randomizer and
+     * species parameters.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param randomizer The random generator of the simulation.
+     * @param species The parameters of each species that differ from
+     *                the defaults, or null to use the defaults.
+     */
+    public Simulator(int depth, int width, Randomizer randomizer, Map<Class, SpeciesParameters> species)
+    {
+        if(width <= 0 || depth <= 0) {
+            System.out.println("The dimensions must be greater than zero.");
+            System.out.println("Using default values.");
+            depth = DEFAULT_DEPTH;
+            width = DEFAULT_WIDTH;
+        }
+        
+        this.randomizer = randomizer;
+        Map<Class, SpeciesParameters> initial = new LinkedHashMap<Class, SpeciesParameters>();
+        for(Species kind : Species.all()) {
+            initial.put(kind.getAnimalClass(), kind.createParameters());
+        }
+        if(species != null) {
+            initial.putAll(species);
+        }
+        parameters = Collections.unmodifiableMap(initial);
+        published = new AtomicReference<Map<Class, SpeciesParameters>>(parameters);
+        
+        animals = new ArrayList<Animal>();
+        newAnimals = new ArrayList<Animal>();
+        field = new Field(depth, width, this);
+        firstRow = 0;
+        endRow = depth;
+        observers = new ArrayList<SimulatorObserver>();
+        actors = new ActorScheduler();
+        phases = new StepPhases();
+        stats = new FieldStats();
+        history = new StringBuilder();
+        history.append("depth=").append(depth).append(" width=").append(width);
+        history.append(" seed=").append(randomizer.getSeed());
+        history.append(" commonRandomNumbers=").append(randomizer.isCommonRandomNumbers());
+        history.append(" creation=").append(FOX_CREATION_PROBABILITY).append(',').append(RABBIT_CREATION_PROBABILITY);
+        history.append(',').append(BEER_CREATION_PROBABILITY).append(',').append(JAGER_CREATION_PROBABILITY);
+        recordedVersion = -1;
+        
+        // Setup a valid starting point.
+        reset();
+    }
+    
+    /**
+     * Create a branch of this simulation from its current state. The
+     * branch has its own copy of the random generator and parameters,
+     * so it continues exactly as this simulation would until either is
+     * changed. Branches can run on other threads, but this simulation
+     * must not be running while it is forked.
+     * @return The branch, without observers or actors.
+     */
+    public Simulator fork()
+    {
+        return new Simulator(this);
+    }
+    
+    /**
+     * Create a branch of the given simulation.
+     * @param parent The simulation to fork.
+     */
+    private Simulator(Simulator parent)
+    {
+        ziekte = parent.ziekte;
+        counter = parent.counter;
+        step = parent.step;
+        observers = new ArrayList<SimulatorObserver>();
+        actors = new ActorScheduler();
+        phases = new StepPhases();
+        stats = new FieldStats();
+        randomizer = parent.randomizer.copy();
+        scheduledBreeding = parent.scheduledBreeding;
+        distancePursuit = parent.distancePursuit;
+        if(parent.scents != null) {
+            scents = new ScentLayer[parent.scents.length];
+            for(int id = 0; id < scents.length; id++) {
+                scents[id] = parent.scents[id].copy();
+            }
+        }
+        if(parent.grass != null) {
+            grass = parent.grass.copy();
+        }
+        spatialOrder = parent.spatialOrder;
+        sortedOrder = parent.sortedOrder;
+        speciesOrder = parent.speciesOrder;
+        interleavedOrder = parent.interleavedOrder;
+        firstRow = parent.firstRow;
+        endRow = parent.endRow;
+        newAnimals = new ArrayList<Animal>();
+        // Parameters never change, so the branches can share them.
+        parameters = parent.parameters;
+        published = new AtomicReference<Map<Class, SpeciesParameters>>(parent.published.get());
+        field = parent.field.fork(this);
+        animals = new ArrayList<Animal>(parent.animals);
+        deaths = parent.deaths.copy();
+        deathScheduleVersion = parent.deathScheduleVersion;
+        history = new StringBuilder(parent.history);
+        stepsSinceEvent = parent.stepsSinceEvent;
+        recordedParameters = parent.recordedParameters;
+        recordedVersion = parent.recordedVersion;
+        generation = 0;
+        parent.generation++;
+        record("fork");
+    }
+    
+    /**
+     * @return A number that changes whenever the simulation is forked.
+     */
+    public int getGeneration()
+    {
+        return generation;
+    }
+    
+    /**
+     * Return the animal itself if it belongs to this simulation alone,
+     * or otherwise a copy of it that does and that replaces it in the
+     * field. An animal must be owned before it is changed.
+     * @param animal A live animal in the field of this simulation.
+     * @return The animal to change.
+     */
+    public Animal own(Animal animal)
+    {
+        if(animal.isOwnedBy(this)) {
+            return animal;
+        }
+        Animal copy = animal.copyFor(this, animal.getLocation());
+        field.place(copy, copy.getLocation());
+        deaths.schedule(copy);
+        if(copies == null) {
+            copies = new IdentityHashMap<Animal, Animal>();
+        }
+        copies.put(animal, copy);
+        return copy;
+    }
+    
+    /**
+     * Check whether an animal is alive in this simulation. A shared
+     * animal is alive as long as it has not been replaced by a copy
+     * or removed from the field.
+     * @param animal The animal.
+     * @return true if the animal is alive here.
+     */
+    private boolean isCurrent(Animal animal)
+    {
+        if(animal.isOwnedBy(this)) {
+            return animal.isAlive();
+        }
+        return animal.isAlive() && field.getObjectAt(animal.getLocation()) == animal;
+    }
+    
+    /**
+     * Copy all shared animals, for code that changes animals without
+     * asking for them to be owned first.
+     */
+    private void ownAll()
+    {
+        for(ListIterator<Animal> it = animals.listIterator(); it.hasNext(); ) {
+            Animal animal = it.next();
+            if(isCurrent(animal)) {
+                it.set(own(animal));
+            }
+            else {
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Remove animals that leave the field for another one. Each live
+     * animal leaves with the given probability.
+     * @param rate The probability of leaving.
+     * @return The animals that left, alive but in no field; see immigrate().
+     */
+    public List<Animal> emigrate(double rate)
+    {
+        record("emigrate=" + rate);
+        long threshold = Randomizer.probabilityThreshold(rate);
+        List<Animal> migrants = new ArrayList<Animal>();
+        for(ListIterator<Animal> it = animals.listIterator(); it.hasNext(); ) {
+            Animal animal = it.next();
+            if(isCurrent(animal) && Randomizer.hits(randomizer.getBuffer().nextWord(), threshold)) {
+                animal = own(animal);
+                migrants.add(animal.copyFor(this, null));
+                animal.setDead();
+                it.remove();
+            }
+        }
+        return migrants;
+    }
+    
+    /**
+     * Add animals that have left another field. Each lands on a random
+     * free location; one that finds none after a few tries is lost.
+     * Their age and food level are as they were when they left.
+     * @param migrants Animals from emigrate() of another simulation.
+     * @param departureStep The step at which they left.
+     * @param origin The history of the simulation they left, which
+     *               determines who they are; see getHistory().
+     * @return The number of animals that have landed.
+     */
+    public int immigrate(List<Animal> migrants, int departureStep, String origin)
+    {
+        record("immigrate=" + ResultCache.hash(origin) + "@" + departureStep);
+        Random rand = randomizer.getRandom();
+        int landed = 0;
+        for(Animal migrant : migrants) {
+            for(int attempt = 0; attempt < LANDING_ATTEMPTS; attempt++) {
+                Location location = new Location(rand.nextInt(field.getDepth()), rand.nextInt(field.getWidth()));
+                if(field.getObjectAt(location) == null && !field.isBlocked(location.getRow(), location.getCol())) {
+                    Animal animal = migrant.copyFor(this, location);
+                    animal.postpone(step - departureStep);
+                    field.place(animal, location);
+                    animals.add(animal);
+                    deaths.schedule(animal);
+                    landed++;
+                    break;
+                }
+            }
+        }
+        return landed;
+    }
+    
+    public void murderdabitches(double kans, String ziektenaam, int steps){
+    	record("disease=" + kans + "," + steps + "," + ziektenaam);
+    	for(int x=0; x < steps; x++)
+    	{
+	    	spreadDisease(kans);
+		    simulateOneStep();
+	    	
+    	}
+    	setZiekte(ziektenaam);
+    }
+    
+    /**
+     * Let a disease kill each animal with the given probability, once,
+     * for instance from an Actor.
+     * @param kans The probability that an animal dies.
+     * @param ziektenaam The name of the disease.
+     */
+    public void infect(double kans, String ziektenaam)
+    {
+        record("infection=" + kans + "," + ziektenaam);
+        spreadDisease(kans);
+        setZiekte(ziektenaam);
+    }
+    
+    /**
+     * Kill each animal with the given probability.
+     */
+    private void spreadDisease(double kans){
+    	Random random = randomizer.getRandom();
+    	for(int i=0; i < animals.size(); i++){
+	    	double randomcijfer = random.nextDouble();
+	    	// Animals that have died, or were replaced after a fork, are
+	    	// left for the death phase to remove.
+	    	if(randomcijfer <= kans && isCurrent(animals.get(i))){
+	    		Animal animal = own(animals.get(i));
+	    		animal.setDead();
+	    		animals.remove(i);
+	    		i--;
+	    		counter ++;
+	    	}else{
+	    	}
+    	}
+    }
+    
+    
+    public int getAantalZiek(){
+    	return counter;
+    }
+    
+    public void setZiekte(String naam){
+    	ziekte = naam;
+    }
+    
+    public void removeZiekte(){
+    	ziekte = null;
+    }
+    
+    public String getZiekte(){
+    	return ziekte;
+    }
+    
+    /**
+     * Add an observer that is told about every step of the simulation.
+     * @param observer The observer to add.
+     */
+    public void addObserver(SimulatorObserver observer)
+    {
+        observers.add(observer);
+    }
+    
+    /**
+     * Remove an observer.
+     * @param observer The observer to remove.
+     */
+    public void removeObserver(SimulatorObserver observer)
+    {
+        observers.remove(observer);
+    }
+    
+    /**
+     * Add a process other than the animals, which runs at the end of
+     * the steps its period and phase call for, from the next step on.
+     * Actors are not part of the state of the simulation: they are not
+     * serialized or forked, and they make their changes through
+     * methods that are written to the history.
+     * @param actor The actor to add.
+     * @throws IllegalArgumentException If its period or phase is invalid.
+     */
+    public void addActor(Actor actor)
+    {
+        actors.add(actor, step);
+    }
+    
+    /**
+     * Remove an actor; it may do so itself while it runs.
+     * @param actor The actor to remove.
+     */
+    public void removeActor(Actor actor)
+    {
+        actors.remove(actor);
+    }
+    
+    /**
+     * @return The classes of the species in this simulation, in a fixed order.
+     */
+    public List<Class> getSpecies()
+    {
+        return new ArrayList<Class>(parameters.keySet());
+    }
+    
+    /**
+     * Count the live animals of each species.
+     * The counts come from the list of animals, so no scan of the
+     * whole field is needed.
+     * @return The population counts of the current step.
+     */
+    public FieldStats getStats()
+    {
+        stats.reset();
+        for(Animal animal : animals) {
+            if(isCurrent(animal)) {
+                stats.incrementCount(animal.getClass());
+            }
+        }
+        stats.countFinished();
+        return stats;
+    }
+    
+    /**
+     * Determine whether the simulation is still viable.
+     * @return true If there is more than one species alive.
+     */
+    public boolean isViable()
+    {
+        return getStats().isViable(field);
+    }
+    
+    /**
+     * Return the parameters of a species in use for the current step.
+     * @param animalClass The class of the species.
+     * @return The parameters of the species.
+     */
+    public SpeciesParameters getParameters(Class animalClass)
+    {
+        return parameters.get(animalClass);
+    }
+    
+    /**
+     * Return the parameters of a species as last published, which may
+     * not be in use yet. Changes should be derived from these, so that
+     * none is lost when several are made between two steps.
+     * @param animalClass The class of the species.
+     * @return The parameters of the species.
+     */
+    public SpeciesParameters getPublishedParameters(Class animalClass)
+    {
+        return published.get().get(animalClass);
+    }
+    
+    /**
+     * Publish new parameters for a species. They are taken into use at
+     * the start of the next step, together with any other parameters
+     * published since the last step, so that a step never sees a mix
+     * of old and new ones. This may be called from any thread, for
+     * instance from the settings panels while the simulation runs, and
+     * takes effect in this simulation only.
+     * @param animalClass The class of the species.
+     * @param species The new parameters, derived from those of
+     *                getPublishedParameters().
+     */
+    public void publishParameters(Class animalClass, SpeciesParameters species)
+    {
+        while(true) {
+            Map<Class, SpeciesParameters> current = published.get();
+            Map<Class, SpeciesParameters> next = new LinkedHashMap<Class, SpeciesParameters>(current);
+            // A new version, so that the change is noticed.
+            next.put(animalClass, species.withVersion(current.get(animalClass).getVersion() + 1));
+            if(published.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return;
+            }
+            // Another thread published at the same time; try again.
+        }
+    }
+    
+    /**
+     * Take the parameters published since the last step into use;
+     * called at step boundaries only.
+     */
+    private void applyParameters()
+    {
+        parameters = published.get();
+        updateKernels();
+    }
+    
+    /**
+     * Return the kernel of a species for the current step, built from
+     * the parameters as they were at the start of the step.
+     * @param speciesId The id of the species.
+     * @return The kernel.
+     */
+    public SpeciesKernel getKernel(int speciesId)
+    {
+        if(kernels == null) {
+            updateKernels();
+        }
+        return kernels[speciesId];
+    }
+    
+    /**
+     * Rebuild the kernels whose parameters have been replaced, or all
+     * of them when scheduled breeding has been switched.
+     */
+    private void updateKernels()
+    {
+        List<Species> all = Species.all();
+        if(kernels == null) {
+            kernels = new SpeciesKernel[all.size()];
+        }
+        for(Species species : all) {
+            SpeciesParameters current = parameters.get(species.getAnimalClass());
+            SpeciesKernel kernel = kernels[species.getId()];
+            if(kernel == null || !kernel.matches(current, scheduledBreeding)) {
+                kernels[species.getId()] = new SpeciesKernel(species, current, scheduledBreeding);
+            }
+        }
+    }
+    
+    /**
+     * Choose how a predator that sees prey further away than the
+     * adjacent locations moves towards it. Normally each predator
+     * looks for the nearest prey itself; see Field.findNearest(). With
+     * distance pursuit the distance to the nearest animal of every
+     * species hunted this way is found for the whole field once at the
+     * start of each step, and a predator moves to the free adjacent
+     * location that is nearest to prey by those distances. That costs
+     * the same however many predators there are, but the prey is
+     * followed to where it was at the start of the step.
+     * @param distance true to pursue prey by the distance fields.
+     */
+    public void setDistancePursuit(boolean distance)
+    {
+        record("distancePursuit=" + distance);
+        distancePursuit = distance;
+    }
+    
+    /**
+     * @return true if predators pursue prey by the distance fields.
+     */
+    public boolean isDistancePursuit()
+    {
+        return distancePursuit;
+    }
+    
+    /**
+     * Return the distances to the nearest animal of a species as they
+     * were at the start of the current step.
+     * @param speciesId The id of the species.
+     * @return The distance field, or null if no predator pursues the
+     *         species by the distance fields.
+     */
+    public DistanceField getDistanceField(int speciesId)
+    {
+        return distanceFields != null ? distanceFields[speciesId] : null;
+    }
+    
+    /**
+     * Bring the distance fields up to date, each as far as the
+     * furthest-seeing predator of the species needs.
+     */
+    private void updateDistanceFields()
+    {
+        if(!distancePursuit) {
+            distanceFields = null;
+            return;
+        }
+        List<Species> all = Species.all();
+        int[] limits = new int[all.size()];
+        for(Species species : all) {
+            SpeciesKernel kernel = getKernel(species.getId());
+            if(kernel.getVisionRadius() > 1) {
+                for(int prey : kernel.getPrey()) {
+                    limits[prey] = Math.max(limits[prey], kernel.getVisionRadius());
+                }
+            }
+        }
+        if(distanceFields == null) {
+            distanceFields = new DistanceField[all.size()];
+        }
+        for(int id = 0; id < limits.length; id++) {
+            if(limits[id] == 0) {
+                distanceFields[id] = null;
+            }
+            else {
+                if(distanceFields[id] == null) {
+                    distanceFields[id] = new DistanceField(id);
+                }
+                distanceFields[id].update(field, limits[id]);
+            }
+        }
+    }
+    
+    /**
+     * Choose whether animals leave scent and choose where to move by
+     * it. Each species then has a ScentLayer, which is updated at the
+     * start of each step: the scent decays and spreads, and every
+     * animal adds to it at its location. A rabbit moves to the free
+     * adjacent location with the least scent of the species that eat
+     * it, and a predator that finds no prey to the one with the most
+     * scent of its prey; scent too faint to notice counts as none, and
+     * of equal locations one is chosen at random as before.
+     * @param scented true to leave and follow scent.
+     * @throws IllegalStateException If the simulation is a strip.
+     */
+    public void setScent(boolean scented)
+    {
+        if(scented && (firstRow > 0 || endRow < field.getDepth())) {
+            throw new IllegalStateException("A strip cannot exchange scent");
+        }
+        record("scent=" + scented);
+        scents = scented ? createScents() : null;
+    }
+    
+    /**
+     * @return true if animals leave and follow scent.
+     */
+    public boolean isScented()
+    {
+        return scents != null;
+    }
+    
+    /**
+     * Return the scent of a species as it was at the start of the step.
+     * @param speciesId The id of the species.
+     * @return The scent, or null if animals do not follow scent.
+     */
+    public ScentLayer getScent(int speciesId)
+    {
+        return scents != null ? scents[speciesId] : null;
+    }
+    
+    /**
+     * @return An empty scent layer for every species.
+     */
+    private ScentLayer[] createScents()
+    {
+        ScentLayer[] layers = new ScentLayer[Species.all().size()];
+        for(int id = 0; id < layers.length; id++) {
+            layers[id] = new ScentLayer(field.getDepth(), field.getWidth());
+        }
+        return layers;
+    }
+    
+    /**
+     * Let the scent decay and spread, and add the scent of every live
+     * animal at its location.
+     */
+    private void updateScents()
+    {
+        if(scents == null) {
+            return;
+        }
+        for(ScentLayer layer : scents) {
+            layer.update();
+        }
+        for(Animal animal : animals) {
+            if(isCurrent(animal)) {
+                Location location = animal.getLocation();
+                scents[animal.getSpeciesId()].deposit(location.getRow(), location.getCol());
+            }
+        }
+    }
+    
+    /**
+     * Choose whether rabbits need food. Normally only crowding limits
+     * the rabbits. With grass, a rabbit has a food level like a
+     * predator and starves when it runs out, and it eats the grass
+     * where it moves to; grazed grass grows back over some steps; see
+     * GrassLayer. The live rabbits start with a random food level.
+     * @param grows true for grass.
+     * @throws IllegalStateException If the simulation is a strip.
+     */
+    public void setGrass(boolean grows)
+    {
+        if(grows && (firstRow > 0 || endRow < field.getDepth())) {
+            throw new IllegalStateException("A strip cannot exchange grass");
+        }
+        record("grass=" + grows);
+        grass = grows ? new GrassLayer(field.getDepth(), field.getWidth()) : null;
+        ownAll();
+        for(Animal animal : animals) {
+            if(animal instanceof Rabbit && grows) {
+                ((Rabbit) animal).startEating(true);
+            }
+            else if(animal instanceof Rabbit) {
+                animal.clearFoodLevel();
+            }
+        }
+        // The rabbits may starve earlier than they were due to die.
+        deaths.clear();
+        deaths.scheduleAll(animals);
+    }
+    
+    /**
+     * Block the locations of a terrain, such as rivers, roads and
+     * fenced reserves, so that no animal can enter them. Animals on
+     * them die. After a reset no animals are placed on them.
+     * @param terrain The terrain, or null to open every location.
+     * @throws IllegalArgumentException If the terrain does not fit the field.
+     */
+    public void setTerrain(Terrain terrain)
+    {
+        field.setTerrain(terrain);
+        record("terrain=" + (terrain != null ? terrain.getKey() : "none"));
+        for(Animal animal : animals) {
+            Location location = animal.getLocation();
+            if(isCurrent(animal) && field.isBlocked(location.getRow(), location.getCol())) {
+                own(animal).setDead();
+            }
+        }
+    }
+    
+    /**
+     * @return The grass, or null if rabbits need no food.
+     */
+    public GrassLayer getGrass()
+    {
+        return grass;
+    }
+    
+    /**
+     * @return The time spent in each phase of the steps since the
+     *         simulator was created, forked or restored.
+     */
+    public StepPhases getPhases()
+    {
+        return phases;
+    }
+    
+    /**
+     * @return The version of the parameters in use for the current
+     *         step, which changes whenever new ones are taken into use.
+     */
+    public int getParameterVersion()
+    {
+        int version = 0;
+        for(SpeciesParameters species : parameters.values()) {
+            version += species.getVersion();
+        }
+        return version;
+    }
+    
+    /**
+     * @return The random generator of this simulation.
+     */
+    public Randomizer getRandomizer()
+    {
+        return randomizer;
+    }
+    
+    /**
+     * Choose between a Bernoulli trial per step and drawing the next
+     * breeding age ahead from the geometric distribution. Both give
+     * the same distribution of births.
+     * @param scheduled true to draw breeding ages ahead.
+     */
+    public void setScheduledBreeding(boolean scheduled)
+    {
+        record("scheduledBreeding=" + scheduled);
+        scheduledBreeding = scheduled;
+    }
+    
+    /**
+     * @return true if breeding ages are drawn ahead.
+     */
+    public boolean isScheduledBreeding()
+    {
+        return scheduledBreeding;
+    }
     
-    public static void main(String args[]){
-        new Simulator(); 
-       }    
+    /**
+     * Choose the order in which animals act. Normally they act in the
+     * order in which they were added to the simulation. In spatial
+     * order they act row by row, from left to right, in the order of
+     * their locations at the start of the step. With common random
+     * numbers a step in spatial order can be divided over strips of
+     * rows; see StripCoordinator.
+     * @param spatial true to act in spatial order.
+     * @throws IllegalStateException If the animals act in species order.
+     */
+    public void setSpatialOrder(boolean spatial)
+    {
+        if(spatial && speciesOrder) {
+            throw new IllegalStateException("Animals act in species order");
+        }
+        record("spatialOrder=" + spatial);
+        spatialOrder = spatial;
+    }
     
     /**
-     * Construct a simulation field with default size.
+     * @return true if animals act in spatial order.
      */
-    public Simulator()
+    public boolean isSpatialOrder()
     {
-        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+        return spatialOrder;
     }
     
     /**
-     * Create a simulation field with the given size.
-     * @param depth Depth of the field. Must be greater than zero.
-     * @param width Width of the field. Must be greater than zero.
+     * Choose whether animals act species by species. In the order of
+     * the list the species are mixed, so the call to act() sees every
+     * kind of animal and cannot be inlined by the compiler. In species
+     * order the animals are first gathered into an array per species,
+     * and each array is handled by a loop of its own that only ever
+     * sees one kind of animal.
+     *
+     * The species then act one after the other, in the order of the
+     * species table, and the animals of a species in the order of the
+     * list; animals born in a step act from the next step, as before.
+     * This gives the species earlier in the table the first move every
+     * step: rabbits get away before any fox hunts. Interleaved, the
+     * arrays are cut into runs of RUN_LENGTH animals that act in an
+     * order shuffled every step, so that, as in the order of the list,
+     * no species moves first on average.
+     * @param species true to act species by species.
+     * @param interleaved true to interleave runs of the species at random.
+     * @throws IllegalStateException If the animals act in spatial order.
      */
-    public Simulator(int depth, int width)
+    public void setSpeciesOrder(boolean species, boolean interleaved)
     {
-        if(width <= 0 || depth <= 0) {
-            System.out.println("The dimensions must be greater than zero.");
-            System.out.println("Using default values.");
-            depth = DEFAULT_DEPTH;
-            width = DEFAULT_WIDTH;
+        if(species && spatialOrder) {
+            throw new IllegalStateException("Animals act in spatial order");
         }
-        
-        animals = new ArrayList<Animal>();
-        field = new Field(depth, width);
-
-        // Create a view of the state of each location in the field.
-        view = new SimulatorView(depth, width);
-        view.setColor(Rabbit.class, Color.orange);
-        view.setColor(Fox.class, Color.blue);
-        view.setColor(Beer.class, Color.red);
-        view.setColor(Jager.class, Color.green);
-        
-        // Setup a valid starting point.
-        reset();
+        record("speciesOrder=" + (species ? (interleaved ? "interleaved" : "batched") : "false"));
+        speciesOrder = species;
+        interleavedOrder = species && interleaved;
     }
     
-    public static void murderdabitches(double kans, String ziektenaam, int steps){
-    	Random random = new Random();
-    	for(int x=0; x < steps; x++)
-    	{
-	    	for(int i=0; i < animals.size(); i++){
-		    	double randomcijfer = random.nextDouble();
-		    	if(randomcijfer <= kans){
-		    		Animal animal = animals.get(i);
-		    		animal.setDead();
-		    		animals.remove(i);
-		    		i--;
-		    		counter ++;
-		    	}else{
-		    	}
-	    	}
-		    simulateOneStep();
-	    	
-    	}
-    	FieldStats.ziekteistrue();
-    	setZiekte(ziektenaam);
+    /**
+     * @return true if animals act species by species.
+     */
+    public boolean isSpeciesOrder()
+    {
+        return speciesOrder;
     }
     
+    /**
+     * Choose how the spatial order is found: by walking the field row
+     * by row, which is quickest when it is crowded, or by sorting the
+     * animals by location, which is quickest when it is nearly empty.
+     * Both give the same order, so this is not part of the history.
+     * @param sorted true to sort the animals.
+     */
+    public void setSortedOrder(boolean sorted)
+    {
+        sortedOrder = sorted;
+    }
     
-    public static int getAantalZiek(){
-    	return counter;
+    /**
+     * @return true if the spatial order is found by sorting the animals.
+     */
+    public boolean isSortedOrder()
+    {
+        return sortedOrder;
     }
     
-    public static void setZiekte(String naam){
-    	ziekte = naam;
+    /**
+     * Look after the given rows only, as one strip of a field that is
+     * divided over several simulations. The simulation is reset and
+     * only those rows are populated, together with the rows just
+     * outside them, the halo. Animals in the halo belong to the
+     * neighbouring strips: they do not act and are not counted, but
+     * the animals of the strip see them, and may eat them or move or
+     * give birth into the halo. The neighbours exchange these rows
+     * each step with getRow() and replaceRow().
+     * Requires common random numbers, so that every animal draws the
+     * same numbers whichever simulation it is in.
+     * @param first The first row of the strip.
+     * @param end The row after the last row of the strip.
+     * @throws IllegalStateException If common random numbers are off,
+     *                               a species sees further than the
+     *                               adjacent locations, or animals
+     *                               follow scent or graze.
+     */
+    public void setRegion(int first, int end)
+    {
+        if(!randomizer.isCommonRandomNumbers()) {
+            throw new IllegalStateException("A strip needs common random numbers");
+        }
+        for(SpeciesParameters species : parameters.values()) {
+            if(species.getVisionRadius() > 1) {
+                // The halo is a single row.
+                throw new IllegalStateException("A strip needs a vision radius of 1");
+            }
+        }
+        if(scents != null || grass != null) {
+            // Only the animals of the halo are exchanged.
+            throw new IllegalStateException("A strip cannot exchange scent or grass");
+        }
+        record("region=" + first + ":" + end);
+        firstRow = first;
+        endRow = end;
+        reset();
     }
     
-    public static void removeZiekte(){
-    	ziekte = null;
+    /**
+     * Return copies of the animals in a row, for instance to send the
+     * row to the simulation of a neighbouring strip.
+     * @param row The row.
+     * @return The animal in each column, in no simulation, or null.
+     */
+    public Animal[] getRow(int row)
+    {
+        Animal[] content = new Animal[field.getWidth()];
+        for(int col = 0; col < content.length; col++) {
+            Object occupant = field.getObjectAt(row, col);
+            if(occupant instanceof Animal && isCurrent((Animal) occupant)) {
+                content[col] = ((Animal) occupant).copyFor(null, null);
+            }
+        }
+        return content;
     }
     
-    public static String getZiekte(){
-    	return ziekte;
+    /**
+     * Replace the animals in a row by those of a row from another
+     * simulation; see getRow(). Only the row number is added to the
+     * history, so a simulation of a strip cannot be cached.
+     * @param row The row.
+     * @param content The animal in each column, or null.
+     */
+    public void replaceRow(int row, Animal[] content)
+    {
+        record("row=" + row);
+        boolean inRegion = row >= firstRow && row < endRow;
+        for(int col = 0; col < content.length; col++) {
+            Object occupant = field.getObjectAt(row, col);
+            if(occupant instanceof Animal && isCurrent((Animal) occupant)) {
+                own((Animal) occupant).setDead();
+            }
+            field.place(null, row, col);
+            if(content[col] != null) {
+                Location location = new Location(row, col);
+                Animal animal = content[col].copyFor(this, location);
+                field.place(animal, location);
+                if(inRegion) {
+                    animals.add(animal);
+                    deaths.schedule(animal);
+                }
+            }
+        }
     }
     
     /**
@@ -135,37 +1066,417 @@ public class Simulator
      * Stop before the given number of steps if it ceases to be viable.
      * @param numSteps The number of steps to run for.
      */
-    public static void simulate(int numSteps)
+    public void simulate(int numSteps)
     {
-        for(int step = 1; step <= numSteps && view.isViable(field); step++) {
+        simulate(numSteps, null);
+    }
+    
+    /**
+     * Run the simulation from its current state for the given number of steps.
+     * Stop before the given number of steps if it ceases to be viable or
+     * the stop condition is met.
+     * @param numSteps The number of steps to run for.
+     * @param stop The condition to stop at, or null to run while viable.
+     */
+    public void simulate(int numSteps, StopCondition stop)
+    {
+        for(int step = 1; step <= numSteps && canContinue(stop); step++) {
             simulateOneStep();
         }
     }
     
+    /**
+     * Run the simulation from its current state for the given number of
+     * steps with the continuous-time EventSimulator instead of stepping
+     * every animal. This pays off for sparse populations on large fields.
+     * Stop before the given number of steps if it ceases to be viable.
+     * @param numSteps The number of steps to run for.
+     */
+    public void simulateContinuous(int numSteps)
+    {
+        simulateContinuous(numSteps, null);
+    }
+    
+    /**
+     * Run the simulation from its current state for the given number of
+     * steps with the continuous-time EventSimulator instead of stepping
+     * every animal. This pays off for sparse populations on large fields.
+     * Stop before the given number of steps if it ceases to be viable or
+     * the stop condition is met.
+     * @param numSteps The number of steps to run for.
+     * @param stop The condition to stop at, or null to run while viable.
+     */
+    public void simulateContinuous(int numSteps, StopCondition stop)
+    {
+        applyParameters();
+        recordParameters();
+        // The engine changes animals without asking for them to be owned.
+        ownAll();
+        EventSimulator engine = new EventSimulator(field, animals, step);
+        int n = 0;
+        while(n < numSteps && canContinue(stop)) {
+            n++;
+            step++;
+            applyParameters();
+            long start = System.nanoTime();
+            updateDistanceFields();
+            start = phases.add(StepPhases.DISTANCES, start);
+            updateScents();
+            start = phases.add(StepPhases.SCENT, start);
+            engine.runUntil(step);
+            // Keep the list of animals up to date for the statistics.
+            animals.clear();
+            animals.addAll(engine.getAnimals());
+            start = phases.add(StepPhases.ACTING, start);
+            actors.run(this, step);
+            phases.add(StepPhases.ENDING, start);
+            phases.countStep();
+            notifyObservers();
+        }
+        record("continuous=" + n);
+        
+        // Hand the survivors back to the stepped simulation.
+        deaths.clear();
+        deaths.scheduleAll(animals);
+    }
+    
+    /**
+     * Decide whether a run can take another step.
+     * @param stop The condition to stop at, or null.
+     * @return true if the simulation is viable and the condition is not met.
+     */
+    private boolean canContinue(StopCondition stop)
+    {
+        return isViable() && (stop == null || !stop.shouldStop(this));
+    }
+    
     /**
      * Run the simulation from its current state for a single step.
-     * Iterate over the whole field updating the state of each
-     * fox and rabbit.
+     * First the animals whose time has come die of old age or hunger,
+     * then every remaining fox and rabbit acts.
+     */
+    public void simulateOneStep()
+    {
+        beginStep();
+        long start = System.nanoTime();
+        if(spatialOrder && sortedOrder) {
+            actSorted();
+        }
+        else if(spatialOrder) {
+            actRows(firstRow, endRow);
+        }
+        else if(speciesOrder) {
+            actBySpecies();
+        }
+        else {
+            // Let all rabbits act.
+            for(ListIterator<Animal> it = animals.listIterator(); it.hasNext(); ) {
+                Animal animal = it.next();
+                if(isCurrent(animal)) {
+                    animal = own(animal);
+                    it.set(animal);
+                    animal.act(newAnimals);
+                }
+                if(!isCurrent(animal)) {
+                    it.remove();
+                }
+            }
+        }
+        phases.add(StepPhases.ACTING, start);
+        endStep();
+    }
+    
+    /**
+     * Start a step in parts, for a step in spatial order that is
+     * interleaved with those of neighbouring strips: beginStep(), then
+     * actRows() for consecutive ranges of the rows of the strip, then
+     * endStep(). Animals whose time has come die, also in the halo.
+     * Then the distance fields and the scent are brought up to date.
      */
-    public static void simulateOneStep()
+    public void beginStep()
     {
+        long start = System.nanoTime();
+        applyParameters();
+        recordParameters();
+        stepsSinceEvent++;
         step++;
 
-        // Provide space for newborn animals.
-        List<Animal> newAnimals = new ArrayList<Animal>();        
-        // Let all rabbits act.
-        for(Iterator<Animal> it = animals.iterator(); it.hasNext(); ) {
-            Animal animal = it.next();
-            animal.act(newAnimals);
-            if(! animal.isAlive()) {
-                it.remove();
+        if(deathScheduleVersion != getParameterVersion()) {
+            // Some death steps may have moved earlier; rebuild the schedule.
+            // Shared animals would still use the parameters from before
+            // the fork, so they are copied first.
+            deathScheduleVersion = getParameterVersion();
+            ownAll();
+            deaths.clear();
+            deaths.scheduleAll(animals);
+        }
+        for(Animal animal : deaths.advance(step)) {
+            if(isCurrent(animal)) {
+                own(animal).setDead();
+            }
+        }
+        // The animals in the halo are not in the timing wheel.
+        dieInRow(firstRow - 1);
+        dieInRow(endRow);
+        start = phases.add(StepPhases.DEATHS, start);
+        updateDistanceFields();
+        start = phases.add(StepPhases.DISTANCES, start);
+        updateScents();
+        phases.add(StepPhases.SCENT, start);
+    }
+    
+    /**
+     * Let the animals in the given rows act, row by row and from left
+     * to right. Animals that have acted this step already, having
+     * moved here, or that were born this step do not act.
+     * @param first The first row.
+     * @param end The row after the last row.
+     */
+    public void actRows(int first, int end)
+    {
+        Animal[] occupants = new Animal[field.getWidth()];
+        for(int row = first; row < end; row++) {
+            // Collect the row first, as the animals move while acting.
+            int count = 0;
+            for(int col = 0; col < occupants.length; col++) {
+                Object occupant = field.getObjectAt(row, col);
+                if(occupant instanceof Animal) {
+                    occupants[count++] = (Animal) occupant;
+                }
+            }
+            for(int i = 0; i < count; i++) {
+                Animal animal = occupants[i];
+                if(isCurrent(animal) && animal.getActedStep() != step) {
+                    animal = own(animal);
+                    animal.setActedStep(step);
+                    animal.act(newAnimals);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Let the animals act in spatial order, found by sorting them by
+     * their locations at the start of the step; the same order as
+     * actRows() for all rows of the region.
+     */
+    private void actSorted()
+    {
+        List<Animal> order = new ArrayList<Animal>(animals.size());
+        for(Animal animal : animals) {
+            if(isInRegion(animal)) {
+                order.add(animal);
+            }
+        }
+        Collections.sort(order, new Comparator<Animal>() {
+            public int compare(Animal a, Animal b)
+            {
+                Location first = a.getLocation();
+                Location second = b.getLocation();
+                if(first.getRow() != second.getRow()) {
+                    return first.getRow() < second.getRow() ? -1 : 1;
+                }
+                return first.getCol() < second.getCol() ? -1 : (first.getCol() > second.getCol() ? 1 : 0);
+            }
+        });
+        for(Animal animal : order) {
+            if(isCurrent(animal) && animal.getActedStep() != step) {
+                animal = own(animal);
+                animal.setActedStep(step);
+                animal.act(newAnimals);
+            }
+        }
+    }
+    
+    /**
+     * Let the animals act species by species; see setSpeciesOrder().
+     */
+    private void actBySpecies()
+    {
+        List<Species> all = Species.all();
+        if(batches == null) {
+            batches = new Animal[all.size()][16];
+            batchSizes = new int[all.size()];
+        }
+        for(Animal animal : animals) {
+            if(isCurrent(animal)) {
+                int id = animal.getSpeciesId();
+                if(batchSizes[id] == batches[id].length) {
+                    batches[id] = Arrays.copyOf(batches[id], batchSizes[id] * 2);
+                }
+                batches[id][batchSizes[id]++] = animal;
+            }
+        }
+
+        if(!interleavedOrder) {
+            for(int id = 0; id < batches.length; id++) {
+                actRun(all.get(id), batches[id], 0, batchSizes[id]);
+            }
+        }
+        else {
+            // Each run is its species id and its first animal.
+            List<int[]> runs = new ArrayList<int[]>();
+            for(int id = 0; id < batches.length; id++) {
+                for(int from = 0; from < batchSizes[id]; from += RUN_LENGTH) {
+                    runs.add(new int[] {id, from});
+                }
+            }
+            for(int i = runs.size() - 1; i > 0; i--) {
+                Collections.swap(runs, i, orderDraw(i, i + 1));
+            }
+            for(int[] run : runs) {
+                int id = run[0];
+                actRun(all.get(id), batches[id], run[1], Math.min(run[1] + RUN_LENGTH, batchSizes[id]));
+            }
+        }
+
+        // The list now holds the copies that acted; endStep() drops the dead.
+        animals.clear();
+        for(int id = 0; id < batches.length; id++) {
+            animals.addAll(Arrays.asList(batches[id]).subList(0, batchSizes[id]));
+            Arrays.fill(batches[id], 0, batchSizes[id], null);
+            batchSizes[id] = 0;
+        }
+    }
+    
+    /**
+     * Let a run of animals of one species act. Each kind of animal has
+     * a loop of its own, in which the call to act() goes to a single
+     * method and can be inlined, and which reads the kernel of the
+     * species once for the whole run.
+     * @param species The species of the animals.
+     * @param batch The animals of the species; shared animals are
+     *              replaced by the copies that act.
+     * @param from The first animal of the run.
+     * @param to The animal after the last of the run.
+     */
+    private void actRun(Species species, Animal[] batch, int from, int to)
+    {
+        Class animalClass = species.getAnimalClass();
+        SpeciesKernel kernel = getKernel(species.getId());
+        if(animalClass == Rabbit.class) {
+            for(int i = from; i < to; i++) {
+                if(isCurrent(batch[i])) {
+                    Rabbit rabbit = (Rabbit) own(batch[i]);
+                    batch[i] = rabbit;
+                    rabbit.act(kernel, newAnimals);
+                }
+            }
+        }
+        else if(Predator.class.isAssignableFrom(animalClass)) {
+            for(int i = from; i < to; i++) {
+                if(isCurrent(batch[i])) {
+                    Predator predator = (Predator) own(batch[i]);
+                    batch[i] = predator;
+                    predator.act(kernel, newAnimals);
+                }
+            }
+        }
+        else {
+            for(int i = from; i < to; i++) {
+                if(isCurrent(batch[i])) {
+                    Animal animal = own(batch[i]);
+                    batch[i] = animal;
+                    animal.act(newAnimals);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Draw a number for the order in which runs of animals act. With
+     * common random numbers the draws depend on the step only.
+     * @param index The number of the draw within the step.
+     * @param bound The upper bound, which must be positive.
+     * @return A number between 0 (inclusive) and bound (exclusive).
+     */
+    private int orderDraw(int index, int bound)
+    {
+        if(randomizer.isCommonRandomNumbers()) {
+            long stream = randomizer.stream(step, 0, 0);
+            return Randomizer.below(Randomizer.word(stream, Randomizer.ORDER, index), bound);
+        }
+        return randomizer.getRandom().nextInt(bound);
+    }
+    
+    /**
+     * Finish a step begun with beginStep(): add the animals born
+     * during it, run the actors that are due and tell the observers.
+     */
+    public void endStep()
+    {
+        long start = System.nanoTime();
+        if(firstRow == 0 && endRow == field.getDepth()) {
+            // Add the newly born foxes and rabbits to the main lists.
+            animals.addAll(newAnimals);
+            deaths.scheduleAll(newAnimals);
+        }
+        else {
+            // Animals in the halo are left to the neighbouring strips.
+            for(Animal young : newAnimals) {
+                if(isInRegion(young)) {
+                    animals.add(young);
+                    deaths.schedule(young);
+                }
             }
         }
-               
-        // Add the newly born foxes and rabbits to the main lists.
-        animals.addAll(newAnimals);
+        newAnimals.clear();
+        if(spatialOrder || speciesOrder) {
+            // The list is not walked while acting, so drop the dead here,
+            // and put copies of shared animals in the place of the
+            // animals they replace.
+            List<Animal> remaining = new ArrayList<Animal>();
+            for(Animal animal : animals) {
+                if(!isInRegion(animal) && copies != null && copies.containsKey(animal)) {
+                    animal = copies.get(animal);
+                }
+                if(isInRegion(animal)) {
+                    remaining.add(animal);
+                }
+            }
+            animals = remaining;
+        }
+        if(copies != null) {
+            copies.clear();
+        }
 
-        view.showStatus(step, field);
+        actors.run(this, step);
+        phases.add(StepPhases.ENDING, start);
+        phases.countStep();
+        notifyObservers();
+    }
+    
+    /**
+     * Check whether an animal is alive in the rows this simulation
+     * looks after.
+     */
+    private boolean isInRegion(Animal animal)
+    {
+        if(!isCurrent(animal)) {
+            return false;
+        }
+        int row = animal.getLocation().getRow();
+        return row >= firstRow && row < endRow;
+    }
+    
+    /**
+     * Let the animals in a row of the halo die whose time has come.
+     * @param row The row, which may be outside the field.
+     */
+    private void dieInRow(int row)
+    {
+        if(row < 0 || row >= field.getDepth()) {
+            return;
+        }
+        for(int col = 0; col < field.getWidth(); col++) {
+            Object occupant = field.getObjectAt(row, col);
+            if(occupant instanceof Animal) {
+                Animal animal = (Animal) occupant;
+                if(isCurrent(animal) && animal.getDeathStep() <= step) {
+                    own(animal).setDead();
+                }
+            }
+        }
     }
         
     /**
@@ -173,54 +1484,187 @@ public class Simulator
      */
     public void reset()
     {
+        applyParameters();
+        record("reset");
         step = 0;
+        if(scents != null) {
+            scents = createScents();
+        }
+        if(grass != null) {
+            grass = new GrassLayer(field.getDepth(), field.getWidth());
+        }
         animals.clear();
+        deaths = new TimingWheel(step);
+        deathScheduleVersion = getParameterVersion();
         populate();
         
-        // Show the starting state in the view.
-        view.showStatus(step, field);
+        // Show the starting state to the observers.
+        notifyObservers();
+    }
+    
+    /**
+     * Return the history of the simulation: its size, seed and creation
+     * probabilities, followed by everything that has been done to it
+     * since, such as parameter changes, releases of animals and the
+     * number of steps run in between. Two simulators with the same
+     * history are in the same state. Parameters that have been
+     * published but are not in use yet come at the end, since they
+     * decide the next step.
+     * @return The history.
+     */
+    public String getHistory()
+    {
+        recordParameters();
+        String current = history.toString();
+        if(stepsSinceEvent > 0) {
+            current += " steps=" + stepsSinceEvent;
+        }
+        Map<Class, SpeciesParameters> pending = published.get();
+        if(pending != parameters && !describe(pending).equals(recordedParameters)) {
+            current += " published " + describe(pending);
+        }
+        return current;
+    }
+    
+    /**
+     * Add an event to the history, after the steps and any parameter
+     * changes that came before it.
+     * @param event The event.
+     */
+    private void record(String event)
+    {
+        recordParameters();
+        append(event);
+    }
+    
+    /**
+     * Add the species parameters to the history if they have changed
+     * since they were last added.
+     */
+    private void recordParameters()
+    {
+        int version = getParameterVersion();
+        if(version == recordedVersion) {
+            return;
+        }
+        recordedVersion = version;
+        String values = describe(parameters);
+        if(!values.equals(recordedParameters)) {
+            recordedParameters = values;
+            append(recordedParameters);
+        }
+    }
+    
+    /**
+     * @return The parameters of every species, as added to the history.
+     */
+    private static String describe(Map<Class, SpeciesParameters> species)
+    {
+        StringBuilder values = new StringBuilder();
+        for(Map.Entry<Class, SpeciesParameters> entry : species.entrySet()) {
+            if(values.length() > 0) {
+                values.append(' ');
+            }
+            values.append(entry.getKey().getName()).append('(').append(entry.getValue()).append(')');
+        }
+        return values.toString();
     }
     
-    public static void nuke(){
+    /**
+     * Add the steps since the last event and then the given event
+     * to the history.
+     */
+    private void append(String event)
+    {
+        if(stepsSinceEvent > 0) {
+            history.append(" steps=").append(stepsSinceEvent);
+            stepsSinceEvent = 0;
+        }
+        history.append(' ').append(event);
+    }
+    
+    /**
+     * Restore a serialized simulator, which has no observers or actors.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        observers = new ArrayList<SimulatorObserver>();
+        actors = new ActorScheduler();
+        phases = new StepPhases();
+    }
+    
+    /**
+     * Tell all observers about the current state of the simulation.
+     */
+    public void notifyObservers()
+    {
+        for(SimulatorObserver observer : observers) {
+            observer.showStatus(step, field);
+        }
+    }
+    
+    public void nuke(){
+    	record("nuke");
     	animals.clear();
     	field.clear();
+    	deaths.clear();
     }
     
-    public static void RealeaseNewAnimals(int amount, char soort){
-        Random rand = Randomizer.getRandom();
+    public void RealeaseNewAnimals(int amount, char soort){
+        record("release=" + amount + soort);
+        Random rand = randomizer.getRandom();
+        int released = animals.size();
         for(int i=0; i < amount; i++){ 
 	                if(soort == 'f') {
-	                	Location location = new Location(rand.nextInt(80), rand.nextInt(120));
+	                	Location location = randomOpenLocation(rand);
 	                    Fox fox = new Fox(true, field, location);
 	                    animals.add(fox);
 	                }
 	                else if(soort == 'r') {
-	                    Location location = new Location(rand.nextInt(80), rand.nextInt(120));
+	                    Location location = randomOpenLocation(rand);
 	                    Rabbit rabbit = new Rabbit(true, field, location);
 	                    animals.add(rabbit);
 	                }
 	                else if(soort == 'b') {
-	                    Location location = new Location(rand.nextInt(80), rand.nextInt(120));
+	                    Location location = randomOpenLocation(rand);
 	                    Beer beer = new Beer(true, field, location);
 	                    animals.add(beer);
 	                }
 	                else if(soort == 'j') {
-	                    Location location = new Location(rand.nextInt(80), rand.nextInt(120));
+	                    Location location = randomOpenLocation(rand);
 	                    Jager jager = new Jager(true, field, location);
 	                    animals.add(jager);
 	                }
         }
+        deaths.scheduleAll(animals.subList(released, animals.size()));
+    }
+    
+    /**
+     * Draw random locations until one is not blocked by the terrain.
+     * @param rand The shared generator.
+     * @return The location.
+     */
+    private Location randomOpenLocation(Random rand)
+    {
+        while(true) {
+            Location location = new Location(rand.nextInt(field.getDepth()), rand.nextInt(field.getWidth()));
+            if(!field.isBlocked(location.getRow(), location.getCol())) {
+                return location;
+            }
+        }
     }
     
-    public static int getSteps(){
+    public int getSteps(){
     	return step;
     }
     
-    public static Field getField(){
+    public Field getField(){
     	return field;
     }
     
-    public static void reload(){
+    public void reload(){
+    	record("reload");
     	populate();
     }
 	        
@@ -228,36 +1672,63 @@ public class Simulator
     /**
      * Randomly populate the field with foxes and rabbits.
      */
-    private static void populate()
+    private void populate()
     {
-        Random rand = Randomizer.getRandom();
+        Random rand = randomizer.getRandom();
         field.clear();
         animals.clear();
-        Simulator.removeZiekte();
-        for(int row = 0; row < field.getDepth(); row++) {
+        deaths.clear();
+        removeZiekte();
+        // A strip is populated together with its halo.
+        int first = Math.max(firstRow - 1, 0);
+        int end = Math.min(endRow + 1, field.getDepth());
+        for(int row = first; row < end; row++) {
             for(int col = 0; col < field.getWidth(); col++) {
-                if(rand.nextDouble() <= FOX_CREATION_PROBABILITY) {
+                if(field.isBlocked(row, col)) {
+                    continue;
+                }
+                Animal animal = null;
+                if(placementChance(rand, row, col, 0) <= FOX_CREATION_PROBABILITY) {
                     Location location = new Location(row, col);
-                    Fox fox = new Fox(true, field, location);
-                    animals.add(fox);
+                    animal = new Fox(true, field, location);
                 }
-                else if(rand.nextDouble() <= RABBIT_CREATION_PROBABILITY) {
+                else if(placementChance(rand, row, col, 1) <= RABBIT_CREATION_PROBABILITY) {
                     Location location = new Location(row, col);
-                    Rabbit rabbit = new Rabbit(true, field, location);
-                    animals.add(rabbit);
+                    animal = new Rabbit(true, field, location);
                 }
-                else if(rand.nextDouble() <= BEER_CREATION_PROBABILITY) {
+                else if(placementChance(rand, row, col, 2) <= BEER_CREATION_PROBABILITY) {
                     Location location = new Location(row, col);
-                    Beer beer = new Beer(true, field, location);
-                    animals.add(beer);
+                    animal = new Beer(true, field, location);
                 }
-                else if(rand.nextDouble() <= JAGER_CREATION_PROBABILITY) {
+                else if(placementChance(rand, row, col, 3) <= JAGER_CREATION_PROBABILITY) {
                     Location location = new Location(row, col);
-                    Jager jager = new Jager(true, field, location);
-                    animals.add(jager);
+                    animal = new Jager(true, field, location);
                 }
                 // else leave the location empty.
+                if(animal != null && row >= firstRow && row < endRow) {
+                    animals.add(animal);
+                }
             }
         }
+        deaths.scheduleAll(animals);
+    }
+    
+    /**
+     * Return a uniform number in [0, 1) for placing animals at the
+     * start. With common random numbers it depends only on the seed
+     * and the location, so every run with the same seed starts with
+     * the same animals in the same places.
+     * @param rand The shared generator.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @param draw The number of the draw for this location.
+     */
+    private double placementChance(Random rand, int row, int col, int draw)
+    {
+        if(randomizer.isCommonRandomNumbers()) {
+            long stream = randomizer.stream(step, row, col);
+            return Randomizer.unit(Randomizer.word(stream, Randomizer.PLACEMENT, draw));
+        }
+        return rand.nextDouble();
     }
 }
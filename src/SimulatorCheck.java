@@ -0,0 +1,749 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks of the simulation that can be run from the command line, for
+ * behaviour that no single run shows to be wrong. Each check prints
+ * whether it passed, and the exit status is 1 if any failed. For
+ * example:
+ * <pre>
+ *   java SimulatorCheck
+ *   java SimulatorCheck continuousDisease
+ * </pre>
+ * Without arguments every check is run. The checks are:
+ * <ul>
+ * <li>continuousDisease: a DiseaseWave kills animals between the
+ *     events of the continuous engine, which must leave them out from
+ *     then on.
+ * <li>isolation: two simulators in one program must not affect each
+ *     other, so running them a step at a time in turn must give the
+ *     same results as running one after the other.
+ * <li>threads: simulators with different settings run at the same
+ *     time on a pool of threads must give the same results as the same
+ *     simulators run one after the other.
+ * <li>islands: an IslandModel run with a thread per island must give
+ *     the same results as the islands stepped in turn on one thread.
+ * <li>fork: a simulator and a fork of it must both go on as the
+ *     simulator would have without the fork, and a change to one of
+ *     them must not reach the other.
+ * <li>commonRandomNumbers: with common random numbers, runs with equal
+ *     parameters must be the same, and a change to one species must
+ *     leave the random numbers of the rest of the field as they were,
+ *     so that the runs differ only near where the change took effect.
+ * <li>sweep: a point of a ParameterSweep that dies out, or meets the
+ *     stop condition, must stop before its step limit and say so.
+ * <li>scheduledBreeding: breeding ages drawn ahead must give the same
+ *     distribution of births as a breeding draw every step.
+ * </ul>
+ */
+public class SimulatorCheck
+{
+    // The names of all checks.
+    private static final String[] CHECKS = {"continuousDisease", "isolation", "threads", "islands", "fork", "commonRandomNumbers", "sweep", "scheduledBreeding"};
+    // The seeds of the breeding check, from 1.
+    private static final int BREEDING_SEEDS = 50;
+    // The number of windows per seed, and the steps in each.
+    private static final int BREEDING_WINDOWS = 200;
+    private static final int BREEDING_WINDOW = 10;
+    // The largest litter in the breeding check; with more, a rabbit
+    // in a corner could be crowded out by its own young.
+    private static final int BREEDING_LITTER = 2;
+    // The topologies of the runs of the islands check.
+    private static final String[] ISLAND_TOPOLOGIES = {"ring", "line", "complete"};
+    // The settings of the runs of the fork check.
+    private static final String[][] FORK_RUNS = {
+        {"seed=8"},
+        {"seed=9", "order=spatial", "commonRandomNumbers=true", "scent=true", "grass=true"},
+        {"seed=10", "order=interleaved", "scheduledBreeding=true", "pursuit=distance"},
+    };
+    // The share of the locations of the field that may differ a number
+    // of steps after runs with common random numbers have parted.
+    private static final double PARTED_SHARE = 0.02;
+    private static final int PARTED_STEPS = 10;
+    // The settings of the simulators of the threads check, which
+    // between them use every engine and order and the optional layers.
+    private static final String[][] THREAD_RUNS = {
+        {"seed=1"},
+        {"seed=2", "scheduledBreeding=true", "Fox.maxAge=100"},
+        {"seed=3", "engine=continuous"},
+        {"seed=4", "commonRandomNumbers=true", "order=spatial"},
+        {"seed=5", "order=interleaved", "scent=true"},
+        {"seed=6", "grass=true", "Fox.visionRadius=3", "pursuit=distance"},
+    };
+
+    /**
+     * Run the checks given by name, or all of them.
+     * @param args The names of the checks to run.
+     */
+    public static void main(String args[])
+    {
+        String[] names = args.length > 0 ? args : CHECKS;
+        boolean passed = true;
+        for(String name : names) {
+            String failure = check(name);
+            if(failure == null) {
+                System.out.println(name + ": passed");
+            }
+            else {
+                System.out.println(name + ": FAILED, " + failure);
+                passed = false;
+            }
+        }
+        if(!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run one check.
+     * @param name The name of the check.
+     * @return null if it passed, otherwise what went wrong.
+     * @throws IllegalArgumentException If there is no such check.
+     */
+    private static String check(String name)
+    {
+        try {
+            if(name.equals("continuousDisease")) {
+                return checkContinuousDisease();
+            }
+            if(name.equals("isolation")) {
+                return checkIsolation();
+            }
+            if(name.equals("threads")) {
+                return checkThreads();
+            }
+            if(name.equals("islands")) {
+                return checkIslands();
+            }
+            if(name.equals("fork")) {
+                return checkFork();
+            }
+            if(name.equals("commonRandomNumbers")) {
+                return checkCommonRandomNumbers();
+            }
+            if(name.equals("sweep")) {
+                return checkSweep();
+            }
+            if(name.equals("scheduledBreeding")) {
+                return checkScheduledBreeding();
+            }
+        }
+        catch(RuntimeException e) {
+            e.printStackTrace();
+            return e.toString();
+        }
+        throw new IllegalArgumentException("No such check: " + name);
+    }
+
+    /**
+     * Run the continuous engine with a disease wave, and compare the
+     * populations it reports with the live animals in the field after
+     * every step.
+     */
+    private static String checkContinuousDisease()
+    {
+        final Simulator simulator = new Simulator(80, 120, new Randomizer(7));
+        simulator.addActor(new DiseaseWave("pest", 0.3, 20, 5));
+        final String[] failure = new String[1];
+        simulator.addObserver(new SimulatorObserver() {
+            public void showStatus(int step, Field field)
+            {
+                String difference = compareWithField(simulator);
+                if(failure[0] == null && difference != null) {
+                    failure[0] = "at step " + step + ": " + difference;
+                }
+            }
+        });
+        simulator.simulateContinuous(300);
+        if(failure[0] != null) {
+            return failure[0];
+        }
+        if(simulator.getHistory().indexOf("infection=") < 0) {
+            return "no wave of the disease came";
+        }
+        return null;
+    }
+
+    /**
+     * Run two simulators with different settings a step at a time in
+     * turn, and compare them with the same two run one after the other.
+     * State shared between them, such as a static field, makes them
+     * differ.
+     */
+    private static String checkIsolation()
+    {
+        int steps = 200;
+        Simulator[] together = {createIsolated(1), createIsolated(2)};
+        PopulationSeries[] togetherSeries = {observe(together[0]), observe(together[1])};
+        for(int step = 1; step <= steps; step++) {
+            for(Simulator simulator : together) {
+                simulator.simulateOneStep();
+            }
+        }
+        // Each is created only when the one before has finished.
+        Simulator[] apart = new Simulator[together.length];
+        PopulationSeries[] apartSeries = new PopulationSeries[together.length];
+        for(int i = 0; i < apart.length; i++) {
+            apart[i] = createIsolated(i + 1);
+            apartSeries[i] = observe(apart[i]);
+            apart[i].simulate(steps);
+        }
+        for(int i = 0; i < together.length; i++) {
+            int step = togetherSeries[i].firstDifference(apartSeries[i]);
+            if(step >= 0) {
+                return "simulator " + (i + 1) + " differs at step " + step;
+            }
+            if(!together[i].getHistory().equals(apart[i].getHistory())) {
+                return "simulator " + (i + 1) + " has another history";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run simulators with different settings at the same time, each on
+     * a thread of its own, and compare each with the same simulator run
+     * on its own afterwards. Unsafe state shared between threads, such
+     * as a static cache or a table built when first needed, makes them
+     * differ or fail.
+     */
+    private static String checkThreads()
+    {
+        final RunConfiguration[] configurations = new RunConfiguration[THREAD_RUNS.length];
+        for(int i = 0; i < configurations.length; i++) {
+            configurations[i] = RunConfiguration.parse(THREAD_RUNS[i]);
+            configurations[i].set("depth", "60");
+            configurations[i].set("width", "90");
+            configurations[i].set("steps", "150");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(configurations.length);
+        List<Future<Outcome>> together = new ArrayList<Future<Outcome>>();
+        try {
+            // All start together, so that their steps overlap.
+            final CountDownLatch start = new CountDownLatch(1);
+            for(final RunConfiguration configuration : configurations) {
+                together.add(pool.submit(new Callable<Outcome>() {
+                    public Outcome call() throws InterruptedException
+                    {
+                        start.await();
+                        return runConfiguration(configuration);
+                    }
+                }));
+            }
+            start.countDown();
+            for(int i = 0; i < configurations.length; i++) {
+                String difference = together.get(i).get().compare(runConfiguration(configurations[i]));
+                if(difference != null) {
+                    return configurations[i] + ": " + difference;
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+        catch(ExecutionException e) {
+            e.getCause().printStackTrace();
+            return "a thread failed: " + e.getCause();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return null;
+    }
+
+    /**
+     * Run metapopulations with a thread per island and again with the
+     * islands stepped in turn on one thread, for each topology. Both
+     * must give the same populations on every island, and leave every
+     * island with the same history. With threads, islands reach their
+     * exchanges in any order, so a batch of migrants taken too early or
+     * too late, or by the wrong island, makes them differ.
+     */
+    private static String checkIslands()
+    {
+        RunConfiguration configuration = RunConfiguration.parse(new String[] {"seed=11", "depth=40", "width=60"});
+        for(String topology : ISLAND_TOPOLOGIES) {
+            IslandModel threaded = new IslandModel(configuration, 5, topology, 0.05, 3);
+            IslandModel inTurn = new IslandModel(configuration, 5, topology, 0.05, 3);
+            try {
+                threaded.run(100);
+                inTurn.runInTurn(100);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+            catch(ExecutionException e) {
+                e.getCause().printStackTrace();
+                return "an island failed: " + e.getCause();
+            }
+            catch(Exception e) {
+                e.printStackTrace();
+                return e.toString();
+            }
+            ByteArrayOutputStream threadedPopulations = new ByteArrayOutputStream();
+            threaded.write(new PrintStream(threadedPopulations));
+            ByteArrayOutputStream inTurnPopulations = new ByteArrayOutputStream();
+            inTurn.write(new PrintStream(inTurnPopulations));
+            if(!threadedPopulations.toString().equals(inTurnPopulations.toString())) {
+                return topology + ": the populations differ";
+            }
+            for(int i = 0; i < threaded.getIslands().size(); i++) {
+                if(!threaded.getIslands().get(i).getHistory().equals(inTurn.getIslands().get(i).getHistory())) {
+                    return topology + ": island " + i + " has another history";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run a simulator created from a configuration.
+     * @return Its population series and history.
+     */
+    private static Outcome runConfiguration(RunConfiguration configuration)
+    {
+        Simulator simulator = configuration.createSimulator();
+        PopulationSeries series = observe(simulator);
+        configuration.run(simulator);
+        return new Outcome(series, simulator);
+    }
+
+    /**
+     * Create one of the simulators of the isolation check; the second
+     * has another seed, other fox parameters and scheduled breeding.
+     * @param which 1 or 2.
+     */
+    private static Simulator createIsolated(int which)
+    {
+        Map<Class, SpeciesParameters> species = null;
+        if(which == 2) {
+            species = new HashMap<Class, SpeciesParameters>();
+            species.put(Fox.class, Fox.createParameters().withMaxAge(100).withBreedingProbability(0.1));
+        }
+        Simulator simulator = new Simulator(60, 90, new Randomizer(which), species);
+        simulator.setScheduledBreeding(which == 2);
+        return simulator;
+    }
+
+    /**
+     * Fork a simulator halfway through a run and step the parent and
+     * the fork in turn, each going first every other step, next to a
+     * run that is not forked. Both must go on exactly as that run does.
+     * Then the same again, but with animals released into the fork and
+     * a disease spread in it right after it is made: the parent must
+     * still go on as the run that is not forked, while the fork differs.
+     */
+    private static String checkFork()
+    {
+        for(String[] settings : FORK_RUNS) {
+            RunConfiguration configuration = RunConfiguration.parse(settings);
+            for(boolean changed : new boolean[] {false, true}) {
+                Simulator alone = configuration.createSimulator();
+                Simulator parent = configuration.createSimulator();
+                alone.simulate(100);
+                parent.simulate(100);
+                Simulator branch = parent.fork();
+                if(changed) {
+                    branch.RealeaseNewAnimals(40, 'f');
+                    branch.infect(0.3, "pest");
+                }
+                PopulationSeries aloneSeries = observe(alone);
+                PopulationSeries parentSeries = observe(parent);
+                PopulationSeries branchSeries = observe(branch);
+                for(int step = 1; step <= 100; step++) {
+                    alone.simulateOneStep();
+                    if(step % 2 == 0) {
+                        branch.simulateOneStep();
+                        parent.simulateOneStep();
+                    }
+                    else {
+                        parent.simulateOneStep();
+                        branch.simulateOneStep();
+                    }
+                }
+                String run = configuration + (changed ? ", fork changed: " : ": ");
+                int step = parentSeries.firstDifference(aloneSeries);
+                if(step >= 0 || countDifferences(parent, alone) > 0) {
+                    return run + "the parent differs from the run without a fork at step " + step;
+                }
+                step = branchSeries.firstDifference(aloneSeries);
+                if(!changed && (step >= 0 || countDifferences(branch, alone) > 0)) {
+                    return run + "the fork differs from the run without a fork at step " + step;
+                }
+                if(changed && step < 0) {
+                    return run + "the change to the fork made no difference";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run three simulators with common random numbers in spatial order,
+     * two with the same parameters and one in which the foxes breed a
+     * little more often. The first two must stay the same. The third
+     * parts from them when a fox first breeds where it did not before;
+     * with every animal drawing from streams of its own, the rest of
+     * the field goes on as before, so a few steps later only a small
+     * share of the locations may differ. With one generator shared by
+     * all animals, most of the field would differ by then.
+     */
+    private static String checkCommonRandomNumbers()
+    {
+        RunConfiguration base = RunConfiguration.parse(new String[] {
+            "depth=80", "width=120", "seed=3", "commonRandomNumbers=true", "order=spatial"});
+        RunConfiguration varied = base.copy();
+        varied.set("Fox.breedingProbability", "0.085");
+        Simulator first = base.createSimulator();
+        Simulator second = base.copy().createSimulator();
+        Simulator changed = varied.createSimulator();
+        int cells = first.getField().getDepth() * first.getField().getWidth();
+        int parted = -1;
+        for(int step = 0; step <= 100; step++) {
+            if(step > 0) {
+                first.simulateOneStep();
+                second.simulateOneStep();
+                changed.simulateOneStep();
+            }
+            if(countDifferences(first, second) > 0) {
+                return "runs with equal parameters differ at step " + step;
+            }
+            int differences = countDifferences(first, changed);
+            if(parted < 0 && differences > 0) {
+                if(step == 0) {
+                    return "the animals are placed differently";
+                }
+                parted = step;
+            }
+            if(parted >= 0 && step == parted + PARTED_STEPS) {
+                if(differences > PARTED_SHARE * cells) {
+                    return differences + " of " + cells + " locations differ " + PARTED_STEPS
+                           + " steps after the runs parted at step " + parted;
+                }
+                return null;
+            }
+        }
+        return "the change of the breeding probability made no difference";
+    }
+
+    /**
+     * @return The number of locations at which the fields of two
+     *         simulators hold different kinds of animal, or one holds
+     *         an animal and the other none.
+     */
+    private static int countDifferences(Simulator a, Simulator b)
+    {
+        Field fieldA = a.getField();
+        Field fieldB = b.getField();
+        int differences = 0;
+        for(int row = 0; row < fieldA.getDepth(); row++) {
+            for(int col = 0; col < fieldA.getWidth(); col++) {
+                Object occupantA = fieldA.getObjectAt(row, col);
+                Object occupantB = fieldB.getObjectAt(row, col);
+                Class kindA = occupantA != null ? occupantA.getClass() : null;
+                Class kindB = occupantB != null ? occupantB.getClass() : null;
+                if(kindA != kindB) {
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Sweep two points, one in which every animal dies of old age in
+     * the first steps and one with the default parameters, and then
+     * the second again with a population limit that it exceeds from
+     * the start. Each must report how it ended and stop in time.
+     */
+    private static String checkSweep()
+    {
+        RunConfiguration healthy = RunConfiguration.parse(new String[] {"depth=40", "width=60", "steps=100"});
+        RunConfiguration doomed = healthy.copy();
+        for(Species kind : Species.all()) {
+            doomed.set(kind.getAnimalClass().getName() + ".maxAge", "1");
+        }
+        List<RunConfiguration> design = new ArrayList<RunConfiguration>();
+        design.add(doomed);
+        design.add(healthy);
+        String[] lines = sweep(new ParameterSweep(healthy, null), design);
+        String failure = checkOutcome(lines[1], "extinct", false);
+        if(failure == null) {
+            failure = checkOutcome(lines[2], "completed", true);
+        }
+        if(failure == null) {
+            lines = sweep(new ParameterSweep(healthy, new PopulationLimit(1)), design.subList(1, 2));
+            failure = checkOutcome(lines[1], "stopped", false);
+        }
+        return failure;
+    }
+
+    /**
+     * Run a sweep on two threads.
+     * @return The lines it writes, the header first.
+     */
+    private static String[] sweep(ParameterSweep sweep, List<RunConfiguration> design)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        try {
+            sweep.run(design, 2, out);
+        }
+        catch(RuntimeException e) {
+            throw e;
+        }
+        catch(Exception e) {
+            throw new IllegalStateException("The sweep failed", e);
+        }
+        out.flush();
+        return bytes.toString().split("\\r?\\n");
+    }
+
+    /**
+     * Check the result line of a sweep point, in which the steps run
+     * and the outcome are the second and third values.
+     * @param line The line.
+     * @param outcome The outcome it should report.
+     * @param full Whether it should have run the 100 steps.
+     * @return null, or what is wrong.
+     */
+    private static String checkOutcome(String line, String outcome, boolean full)
+    {
+        String[] values = line.split(",");
+        int steps = Integer.parseInt(values[1]);
+        if(!values[2].equals(outcome) || (steps == 100) != full) {
+            return "expected " + outcome + (full ? " after" : " before") + " 100 steps: " + line;
+        }
+        return null;
+    }
+
+    /**
+     * Follow one rabbit in an otherwise empty field, for a range of
+     * seeds, and count its births in windows of steps, with a breeding
+     * draw every step and with breeding ages drawn ahead. In both the
+     * counts must fit the distribution that follows from the breeding
+     * probability and litter size, by a chi-square test at the 0.1%
+     * level.
+     */
+    private static String checkScheduledBreeding()
+    {
+        SpeciesParameters rabbit = Rabbit.createParameters().withBreedingAge(0).withMaxAge(1000000)
+                                                             .withMaxLitterSize(BREEDING_LITTER);
+        double[] expected = windowDistribution(rabbit.getBreedingProbability());
+        for(int i = 0; i < expected.length; i++) {
+            expected[i] *= BREEDING_SEEDS * BREEDING_WINDOWS;
+        }
+        for(boolean scheduled : new boolean[] {false, true}) {
+            int[] observed = new int[expected.length];
+            for(int seed = 1; seed <= BREEDING_SEEDS; seed++) {
+                String failure = countBirths(seed, rabbit, scheduled, observed);
+                if(failure != null) {
+                    return failure;
+                }
+            }
+            String misfit = chiSquare(observed, expected);
+            if(misfit != null) {
+                return (scheduled ? "drawn ahead, " : "drawn every step, ") + misfit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count the births of one rabbit in windows of steps.
+     * @param seed The seed of the simulation.
+     * @param rabbit The parameters of the rabbits.
+     * @param scheduled Whether breeding ages are drawn ahead.
+     * @param observed The number of windows with each number of births,
+     *                 added to.
+     * @return null, or what went wrong.
+     */
+    private static String countBirths(int seed, SpeciesParameters rabbit, boolean scheduled, int[] observed)
+    {
+        Map<Class, SpeciesParameters> species = new HashMap<Class, SpeciesParameters>();
+        species.put(Rabbit.class, rabbit);
+        Simulator simulator = new Simulator(20, 20, new Randomizer(seed), species);
+        simulator.setScheduledBreeding(scheduled);
+        Field field = simulator.getField();
+        // Keep the first rabbit and nothing else.
+        Animal parent = null;
+        for(int row = 0; row < field.getDepth(); row++) {
+            for(int col = 0; col < field.getWidth(); col++) {
+                Object occupant = field.getObjectAt(row, col);
+                if(occupant instanceof Rabbit && parent == null) {
+                    parent = (Animal) occupant;
+                }
+                else if(occupant instanceof Animal) {
+                    ((Animal) occupant).setDead();
+                }
+            }
+        }
+        if(parent == null) {
+            return "no rabbit in the field of seed " + seed;
+        }
+        for(int window = 0; window < BREEDING_WINDOWS; window++) {
+            int births = 0;
+            for(int step = 0; step < BREEDING_WINDOW; step++) {
+                simulator.simulateOneStep();
+                // Take the young away, so that the parent always has room.
+                for(int row = 0; row < field.getDepth(); row++) {
+                    for(int col = 0; col < field.getWidth(); col++) {
+                        Object occupant = field.getObjectAt(row, col);
+                        if(occupant instanceof Animal && occupant != parent) {
+                            births++;
+                            ((Animal) occupant).setDead();
+                        }
+                    }
+                }
+            }
+            if(!parent.isAlive()) {
+                return "the rabbit of seed " + seed + " died";
+            }
+            observed[Math.min(births, observed.length - 1)]++;
+        }
+        return null;
+    }
+
+    /**
+     * Return the distribution of the births of a rabbit in a window of
+     * steps: in every step it has a litter with the given probability,
+     * of 1 up to BREEDING_LITTER young with equal probability.
+     * @param probability The breeding probability.
+     * @return The probability of each number of births.
+     */
+    private static double[] windowDistribution(double probability)
+    {
+        double[] window = {1};
+        for(int step = 0; step < BREEDING_WINDOW; step++) {
+            double[] next = new double[window.length + BREEDING_LITTER];
+            for(int births = 0; births < window.length; births++) {
+                next[births] += window[births] * (1 - probability);
+                for(int litter = 1; litter <= BREEDING_LITTER; litter++) {
+                    next[births + litter] += window[births] * probability / BREEDING_LITTER;
+                }
+            }
+            window = next;
+        }
+        return window;
+    }
+
+    /**
+     * Test observed counts against expected ones. The numbers from the
+     * first whose expected count is below 5 are taken together.
+     * @return null if they fit at the 0.1% level, otherwise by how much
+     *         they do not.
+     */
+    private static String chiSquare(int[] observed, double[] expected)
+    {
+        double statistic = 0;
+        int bins = 0;
+        double tailObserved = 0;
+        double tailExpected = 0;
+        for(int i = 0; i < expected.length; i++) {
+            if(tailExpected == 0 && expected[i] >= 5) {
+                statistic += (observed[i] - expected[i]) * (observed[i] - expected[i]) / expected[i];
+                bins++;
+            }
+            else {
+                tailObserved += observed[i];
+                tailExpected += expected[i];
+            }
+        }
+        if(tailExpected > 0) {
+            statistic += (tailObserved - tailExpected) * (tailObserved - tailExpected) / tailExpected;
+            bins++;
+        }
+        // The 99.9% point of the chi-square distribution, by the
+        // approximation of Wilson and Hilferty.
+        int freedom = bins - 1;
+        double a = 2.0 / (9 * freedom);
+        double critical = freedom * Math.pow(1 - a + 3.09 * Math.sqrt(a), 3);
+        if(statistic > critical) {
+            return String.format("chi-square %.1f above %.1f with %d degrees of freedom", statistic, critical, freedom);
+        }
+        return null;
+    }
+
+    /**
+     * Record the population series of a simulator from now on.
+     */
+    private static PopulationSeries observe(Simulator simulator)
+    {
+        PopulationSeries series = new PopulationSeries(simulator.getSpecies());
+        simulator.addObserver(series);
+        simulator.notifyObservers();
+        return series;
+    }
+
+    /**
+     * Compare the population counts of a simulation with the live
+     * animals in its field.
+     * @return null if they agree, otherwise the first species that differs.
+     */
+    private static String compareWithField(Simulator simulator)
+    {
+        Field field = simulator.getField();
+        FieldStats stats = simulator.getStats();
+        List<Class> species = simulator.getSpecies();
+        int[] counts = new int[species.size()];
+        for(int row = 0; row < field.getDepth(); row++) {
+            for(int col = 0; col < field.getWidth(); col++) {
+                Object occupant = field.getObjectAt(row, col);
+                if(occupant instanceof Animal && ((Animal) occupant).isAlive()) {
+                    counts[species.indexOf(occupant.getClass())]++;
+                }
+            }
+        }
+        for(int i = 0; i < counts.length; i++) {
+            if(stats.getCount(species.get(i)) != counts[i]) {
+                return species.get(i).getName() + " counted " + stats.getCount(species.get(i))
+                       + ", in the field " + counts[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The population series of a run and the history of its simulator
+     * at the end.
+     */
+    private static class Outcome
+    {
+        private final PopulationSeries series;
+        private final String history;
+
+        Outcome(PopulationSeries series, Simulator simulator)
+        {
+            this.series = series;
+            history = simulator.getHistory();
+        }
+
+        /**
+         * @return null if the other run had the same outcome, otherwise
+         *         how it differs.
+         */
+        String compare(Outcome other)
+        {
+            int step = series.firstDifference(other.series);
+            if(step >= 0) {
+                return "differs at step " + step;
+            }
+            if(!history.equals(other.history)) {
+                return "has another history";
+            }
+            return null;
+        }
+    }
+}
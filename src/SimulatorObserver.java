@@ -0,0 +1,14 @@
+/**
+ * Something that wants to be told about the progress of a simulation,
+ * such as the graphical SimulatorView or a recorder of the population
+ * time series. The simulation itself runs without any observers.
+ */
+public interface SimulatorObserver
+{
+    /**
+     * Show the current status of the field.
+     * @param step Which iteration step it is.
+     * @param field The field whose status is to be displayed.
+     */
+    void showStatus(int step, Field field);
+}
@@ -19,11 +19,12 @@ import javax.sound.sampled.DataLine;
  * representing its contents. It uses a default background color.
  * Colors for each type of species can be defined using the
  * setColor method.
+ * The view is an observer of a Simulator, which runs without it.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class SimulatorView extends JFrame
+public class SimulatorView extends JFrame implements SimulatorObserver
 {
     // Colors used for empty locations.
     private static final Color EMPTY_COLOR = Color.white;
@@ -49,16 +50,37 @@ public class SimulatorView extends JFrame
     private Map<Class, Color> colors;
     // A statistics object computing and storing simulation information
     private FieldStats stats;
+    // The results of earlier runs of the "Simuleer" button.
+    private ResultCache cache;
     
 
+    /**
+     * Start a simulation with default settings and show it.
+     */
+    public static void main(String args[])
+    {
+        Simulator simulator = new Simulator();
+        Field field = simulator.getField();
+        SimulatorView view = new SimulatorView(simulator, field.getDepth(), field.getWidth());
+        view.setColor(Rabbit.class, Color.orange);
+        view.setColor(Fox.class, Color.blue);
+        view.setColor(Beer.class, Color.red);
+        view.setColor(Jager.class, Color.green);
+        simulator.addObserver(view);
+        view.showStatus(simulator.getSteps(), field);
+    }
+    
     /**
      * Create a view of the given width and height.
+     * @param simulator The simulation to show and control.
      * @param height The simulation's height.
      * @param width  The simulation's width.
      */
-    public SimulatorView(int height, int width)
+    public SimulatorView(Simulator simulator, int height, int width)
     {
+        this.simulator = simulator;
         stats = new FieldStats();
+        cache = new ResultCache(new File(ResultCache.DEFAULT_DIRECTORY), ResultCache.DEFAULT_BUDGET);
         colors = new LinkedHashMap<Class, Color>();
 
         setTitle("Vossen en Konijnen");
@@ -226,6 +248,19 @@ public class SimulatorView extends JFrame
         fieldView.repaint();
     }
 
+    /**
+     * Show and control another simulation instead of the current one,
+     * for instance one restored from the cache.
+     * @param newSimulator The simulation to show and control.
+     */
+    public void setSimulator(Simulator newSimulator)
+    {
+        simulator.removeObserver(this);
+        simulator = newSimulator;
+        simulator.addObserver(this);
+        showStatus(simulator.getSteps(), simulator.getField());
+    }
+
     /**
      * Determine whether the simulation should continue to run.
      * @return true If there is more than one species alive.
@@ -324,7 +359,7 @@ public class SimulatorView extends JFrame
     public class Hundredstep implements ActionListener {
 		@Override
 		public void actionPerformed(ActionEvent e) {
-        	Simulator.simulate(100);
+        	simulator.simulate(100);
 		}
 
 	}
@@ -332,7 +367,7 @@ public class SimulatorView extends JFrame
 	public class Onestep implements ActionListener {
 		@Override
 		public void actionPerformed(ActionEvent e) {
-        	Simulator.simulateOneStep();
+        	simulator.simulateOneStep();
 
 		}
 
@@ -340,16 +375,15 @@ public class SimulatorView extends JFrame
 	
 	public class Reloader implements ActionListener {
 		public void actionPerformed(ActionEvent e){
-	        FieldStats.ziekteisfalse();
-			Simulator.reload();
-			Simulator.simulateOneStep();
+			simulator.reload();
+			simulator.simulateOneStep();
 		}
 	}
 	
 	public class Oerknal implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			Simulator.nuke();
-	        Simulator.simulateOneStep();
+			simulator.nuke();
+	        simulator.simulateOneStep();
 	        	      
 	        JFrame framelol = new JFrame("And it's gone");
 	        framelol.setLayout(new BorderLayout(10,10));
@@ -416,8 +450,8 @@ public class SimulatorView extends JFrame
 		
 		public class Ziektemaker implements ActionListener {
 			public void actionPerformed(ActionEvent e) {
-				Simulator.murderdabitches(Double.parseDouble(doodkans.getText()), ziekteveld.getText(), Integer.parseInt(aantalsteps.getText()));
-				Simulator.simulateOneStep();
+				simulator.murderdabitches(Double.parseDouble(doodkans.getText()), ziekteveld.getText(), Integer.parseInt(aantalsteps.getText()));
+				simulator.simulateOneStep();
 				ziekteu.dispose();
 			}
 		}
@@ -429,16 +463,16 @@ public class SimulatorView extends JFrame
 			}else{
 
 			if(text1.getText().length() > 0){
-				Rabbit.setBreedingAge(Integer.parseInt(text1.getText()));				
+				simulator.publishParameters(Rabbit.class, simulator.getPublishedParameters(Rabbit.class).withBreedingAge(Integer.parseInt(text1.getText())));				
 			}
 			if(text2.getText().length() > 0){
-	        	Rabbit.setMaxAge(Integer.parseInt(text2.getText()));				
+	        	simulator.publishParameters(Rabbit.class, simulator.getPublishedParameters(Rabbit.class).withMaxAge(Integer.parseInt(text2.getText())));				
 			}
 			if(text3.getText().length() > 0){
-	        	Rabbit.setBreedingProbability(Double.parseDouble(text3.getText()));				
+	        	simulator.publishParameters(Rabbit.class, simulator.getPublishedParameters(Rabbit.class).withBreedingProbability(Double.parseDouble(text3.getText())));				
 			}
 			if(text4.getText().length() > 0){
-				Rabbit.setMaxLitterSize(Integer.parseInt(text4.getText()));				
+				simulator.publishParameters(Rabbit.class, simulator.getPublishedParameters(Rabbit.class).withMaxLitterSize(Integer.parseInt(text4.getText())));				
 			}
         	
         	text1.setText("");
@@ -463,16 +497,16 @@ public class SimulatorView extends JFrame
 			}else{
 
 			if(text1.getText().length() > 0){
-				Fox.setBreedingAge(Integer.parseInt(text1.getText()));				
+				simulator.publishParameters(Fox.class, simulator.getPublishedParameters(Fox.class).withBreedingAge(Integer.parseInt(text1.getText())));				
 			}
 			if(text2.getText().length() > 0){
-	        	Fox.setMaxAge(Integer.parseInt(text2.getText()));				
+	        	simulator.publishParameters(Fox.class, simulator.getPublishedParameters(Fox.class).withMaxAge(Integer.parseInt(text2.getText())));				
 			}
 			if(text3.getText().length() > 0){
-	        	Fox.setBreedingProbability(Double.parseDouble(text3.getText()));				
+	        	simulator.publishParameters(Fox.class, simulator.getPublishedParameters(Fox.class).withBreedingProbability(Double.parseDouble(text3.getText())));				
 			}
 			if(text4.getText().length() > 0){
-	        	Fox.setMaxLitterSize(Integer.parseInt(text4.getText()));				
+	        	simulator.publishParameters(Fox.class, simulator.getPublishedParameters(Fox.class).withMaxLitterSize(Integer.parseInt(text4.getText())));				
 			}
         	
         	text1.setText("");
@@ -497,16 +531,16 @@ public class SimulatorView extends JFrame
 			}else{
 
 			if(text1.getText().length() > 0){
-				Beer.setBreedingAge(Integer.parseInt(text1.getText()));				
+				simulator.publishParameters(Beer.class, simulator.getPublishedParameters(Beer.class).withBreedingAge(Integer.parseInt(text1.getText())));				
 			}
 			if(text2.getText().length() > 0){
-	        	Beer.setMaxAge(Integer.parseInt(text2.getText()));				
+	        	simulator.publishParameters(Beer.class, simulator.getPublishedParameters(Beer.class).withMaxAge(Integer.parseInt(text2.getText())));				
 			}
 			if(text3.getText().length() > 0){
-	        	Beer.setBreedingProbability(Double.parseDouble(text3.getText()));				
+	        	simulator.publishParameters(Beer.class, simulator.getPublishedParameters(Beer.class).withBreedingProbability(Double.parseDouble(text3.getText())));				
 			}
 			if(text4.getText().length() > 0){
-	        	Beer.setMaxLitterSize(Integer.parseInt(text4.getText()));				
+	        	simulator.publishParameters(Beer.class, simulator.getPublishedParameters(Beer.class).withMaxLitterSize(Integer.parseInt(text4.getText())));				
 			}
      
         	text1.setText("");
@@ -531,16 +565,16 @@ public class SimulatorView extends JFrame
 			}else{
 
 			if(text1.getText().length() > 0){
-				Jager.setBreedingAge(Integer.parseInt(text1.getText()));				
+				simulator.publishParameters(Jager.class, simulator.getPublishedParameters(Jager.class).withBreedingAge(Integer.parseInt(text1.getText())));				
 			}
 			if(text2.getText().length() > 0){
-	        	Jager.setMaxAge(Integer.parseInt(text2.getText()));				
+	        	simulator.publishParameters(Jager.class, simulator.getPublishedParameters(Jager.class).withMaxAge(Integer.parseInt(text2.getText())));				
 			}
 			if(text3.getText().length() > 0){
-	        	Jager.setBreedingProbability(Double.parseDouble(text3.getText()));				
+	        	simulator.publishParameters(Jager.class, simulator.getPublishedParameters(Jager.class).withBreedingProbability(Double.parseDouble(text3.getText())));				
 			}
 			if(text4.getText().length() > 0){
-	        	Jager.setMaxLitterSize(Integer.parseInt(text4.getText()));				
+	        	simulator.publishParameters(Jager.class, simulator.getPublishedParameters(Jager.class).withMaxLitterSize(Integer.parseInt(text4.getText())));				
 			}
         	
         	text1.setText("");
@@ -562,8 +596,17 @@ public class SimulatorView extends JFrame
 	
 	public class AantalStappen implements ActionListener{
 		public void actionPerformed(ActionEvent e){
-			if(Integer.parseInt(aantalstappen.getText()) > 0);
-			Simulator.simulate(Integer.parseInt(aantalstappen.getText()));
+			int steps = Integer.parseInt(aantalstappen.getText());
+			// A run that has been done before is taken from the cache.
+			String key = simulator.getHistory() + " simulate=" + steps;
+			Simulator cached = cache.getState(key);
+			if(cached != null) {
+				setSimulator(cached);
+			}
+			else {
+				simulator.simulate(steps);
+				cache.putState(key, simulator);
+			}
 		}
 	}
 	
@@ -613,18 +656,18 @@ public class SimulatorView extends JFrame
 		public class ReleaseAnimal implements ActionListener {
 			public void actionPerformed(ActionEvent e){
 			           if(fox.isSelected()){
-			        	   Simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'f');
+			        	   simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'f');
 			           }
 			           if(rabbit.isSelected()){
-			        	   Simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'r');			        	   
+			        	   simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'r');			        	   
 			           }
 			           if(jager.isSelected()){
-			        	   Simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'j');			        	   
+			        	   simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'j');			        	   
 			           }
 			           if(beer.isSelected()){
-			        	   Simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'b');			        	   
+			        	   simulator.RealeaseNewAnimals(Integer.parseInt(amount.getText()), 'b');			        	   
 			           }
-			           Simulator.simulateOneStep();
+			           simulator.simulateOneStep();
 		        	   frame3.dispose();
 			}
 		}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The table of species: the default life history of each, and the diet
+ * matrix that says which species a predator eats and how much food
+ * each prey is worth to it. The predators differ only in these values,
+ * and are all driven by the same code in Predator.
+ *
+ * Each species has a small number as its id, so that the species a
+ * predator eats can be kept as a bit mask and checked with a single
+ * and, instead of a chain of instanceof tests. Every simulation starts
+ * from the life history in the table and keeps its own copy as
+ * SpeciesParameters; the diet is the same in every simulation.
+ */
+public class Species
+{
+    // The most species there can be, one per bit of a mask.
+    public static final int MAX_SPECIES = 64;
+
+    // All species, by id.
+    private static final List<Species> ALL = new ArrayList<Species>();
+
+    public static final Species RABBIT = new Species(Rabbit.class, 5, 40, 0.12, 4, 1, 8, true);
+    public static final Species FOX = new Species(Fox.class, 15, 150, 0.08, 2, 1, 9, false);
+    public static final Species BEER = new Species(Beer.class, 25, 200, 0.01, 2, 1, 15, true);
+    public static final Species JAGER = new Species(Jager.class, 16, 100, 0.01, 2, 1, 15, true);
+
+    static {
+        // The food value of a prey is the number of steps a predator
+        // can go before it has to eat again.
+        FOX.eats(RABBIT, 9);
+        BEER.eats(RABBIT, 15);
+        BEER.eats(FOX, 50);
+        JAGER.eats(RABBIT, 15);
+        JAGER.eats(FOX, 50);
+        JAGER.eats(BEER, 50);
+    }
+
+    // The number of the species in the table.
+    private final int id;
+    // The class of the animals of the species.
+    private final Class animalClass;
+    // The default life history.
+    private final int breedingAge;
+    private final int maxAge;
+    private final double breedingProbability;
+    private final int maxLitterSize;
+    private final int visionRadius;
+    // The food level of a newborn, and the most an animal starts with.
+    private final int birthFoodLevel;
+    // Whether eating adds to the food level, instead of setting it.
+    private final boolean addsFood;
+    // The species this one eats, one bit per id.
+    private long diet;
+    // The food value of each species to this one, by id.
+    private final int[] foodValues;
+
+    /**
+     * Add a species to the table.
+     */
+    private Species(Class animalClass, int breedingAge, int maxAge, double breedingProbability,
+                    int maxLitterSize, int visionRadius, int birthFoodLevel, boolean addsFood)
+    {
+        if(ALL.size() == MAX_SPECIES) {
+            throw new IllegalStateException("Too many species");
+        }
+        id = ALL.size();
+        this.animalClass = animalClass;
+        this.breedingAge = breedingAge;
+        this.maxAge = maxAge;
+        this.breedingProbability = breedingProbability;
+        this.maxLitterSize = maxLitterSize;
+        this.visionRadius = visionRadius;
+        this.birthFoodLevel = birthFoodLevel;
+        this.addsFood = addsFood;
+        foodValues = new int[MAX_SPECIES];
+        ALL.add(this);
+    }
+
+    /**
+     * Add a prey to the diet of this species.
+     */
+    private void eats(Species prey, int foodValue)
+    {
+        diet |= prey.getMask();
+        foodValues[prey.id] = foodValue;
+    }
+
+    /**
+     * @return All species, in the order of their ids.
+     */
+    public static List<Species> all()
+    {
+        return Collections.unmodifiableList(ALL);
+    }
+
+    /**
+     * @param id The id of a species.
+     * @return The species with that id.
+     */
+    public static Species get(int id)
+    {
+        return ALL.get(id);
+    }
+
+    /**
+     * Find the species of a class of animals.
+     * @param animalClass The class.
+     * @return The species.
+     * @throws IllegalArgumentException If the class is not in the table.
+     */
+    public static Species of(Class animalClass)
+    {
+        for(Species species : ALL) {
+            if(species.animalClass == animalClass) {
+                return species;
+            }
+        }
+        throw new IllegalArgumentException("Not a species: " + animalClass.getName());
+    }
+
+    /**
+     * @return A new set of parameters with the default life history.
+     */
+    public SpeciesParameters createParameters()
+    {
+        return new SpeciesParameters(breedingAge, maxAge, breedingProbability, maxLitterSize, visionRadius);
+    }
+
+    /**
+     * @return The number of the species in the table.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return The bit of the species in a diet mask.
+     */
+    public long getMask()
+    {
+        return 1L << id;
+    }
+
+    /**
+     * @return The class of the animals of the species.
+     */
+    public Class getAnimalClass()
+    {
+        return animalClass;
+    }
+
+    /**
+     * @return The food level of a newborn, and the most an animal starts with.
+     */
+    public int getBirthFoodLevel()
+    {
+        return birthFoodLevel;
+    }
+
+    /**
+     * @return true if eating adds to the food level, false if it sets it.
+     */
+    public boolean addsFood()
+    {
+        return addsFood;
+    }
+
+    /**
+     * @return The species this one eats, one bit per id.
+     */
+    public long getDiet()
+    {
+        return diet;
+    }
+
+    /**
+     * @param prey The id of a species.
+     * @return The food value of that species to this one, or 0 if it
+     *         is not eaten.
+     */
+    public int getFoodValue(int prey)
+    {
+        return foodValues[prey];
+    }
+
+    /**
+     * @return The name of the class of the animals.
+     */
+    public String toString()
+    {
+        return animalClass.getName();
+    }
+}
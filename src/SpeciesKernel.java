@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The values that the animals of one species need while they act in a
+ * step, taken from the species table and from the parameters of the
+ * species in one simulation as they were at the start of the step.
+ *
+ * A kernel never changes. A simulation builds a new one at a step
+ * boundary when the parameters of the species have been replaced, and
+ * hands the same kernel to every animal of the species for the whole
+ * step; see Simulator.getKernel(). A loop over the animals of one
+ * species reads the kernel once, so that within the loop the
+ * thresholds and the diet are constants.
+ */
+public final class SpeciesKernel
+{
+    // The parameters the kernel was built from.
+    private final SpeciesParameters parameters;
+    // Whether breeding ages are drawn ahead.
+    private final boolean scheduledBreeding;
+    // The age at which an animal can start to breed.
+    private final int breedingAge;
+    // The breeding probability as a threshold for Randomizer.hits().
+    private final long breedingThreshold;
+    // The maximum number of births.
+    private final int maxLitterSize;
+    // The distance within which prey is sensed.
+    private final int visionRadius;
+    // The species eaten, one bit per id, and their food values by id.
+    private final long diet;
+    private final int[] foodValues;
+    // The ids of the species eaten, and of those that eat this one, in order.
+    private final int[] prey;
+    private final int[] predators;
+    // Whether eating adds to the food level, instead of setting it.
+    private final boolean addsFood;
+
+    /**
+     * Build the kernel of a species.
+     * @param species The species.
+     * @param parameters Its parameters in the simulation.
+     * @param scheduledBreeding Whether breeding ages are drawn ahead.
+     */
+    public SpeciesKernel(Species species, SpeciesParameters parameters, boolean scheduledBreeding)
+    {
+        this.parameters = parameters;
+        this.scheduledBreeding = scheduledBreeding;
+        breedingAge = parameters.getBreedingAge();
+        breedingThreshold = parameters.getBreedingThreshold();
+        maxLitterSize = parameters.getMaxLitterSize();
+        visionRadius = parameters.getVisionRadius();
+        diet = species.getDiet();
+        foodValues = new int[Species.all().size()];
+        for(int prey = 0; prey < foodValues.length; prey++) {
+            foodValues[prey] = species.getFoodValue(prey);
+        }
+        addsFood = species.addsFood();
+        prey = new int[Long.bitCount(diet)];
+        int count = 0;
+        for(int id = 0; id < foodValues.length; id++) {
+            if((diet & (1L << id)) != 0) {
+                prey[count++] = id;
+            }
+        }
+        List<Integer> eaters = new ArrayList<Integer>();
+        for(Species other : Species.all()) {
+            if((other.getDiet() & (1L << species.getId())) != 0) {
+                eaters.add(other.getId());
+            }
+        }
+        predators = new int[eaters.size()];
+        for(int i = 0; i < predators.length; i++) {
+            predators[i] = eaters.get(i);
+        }
+    }
+
+    /**
+     * Check whether the kernel still matches the given settings.
+     * @param parameters The parameters of the species.
+     * @param scheduled Whether breeding ages are drawn ahead.
+     * @return true if the kernel was built from these settings.
+     */
+    public boolean matches(SpeciesParameters parameters, boolean scheduled)
+    {
+        return this.parameters == parameters && scheduledBreeding == scheduled;
+    }
+
+    /**
+     * @return The parameters the kernel was built from.
+     */
+    public SpeciesParameters getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return true if breeding ages are drawn ahead.
+     */
+    public boolean isScheduledBreeding()
+    {
+        return scheduledBreeding;
+    }
+
+    /**
+     * @return The age at which an animal can start to breed.
+     */
+    public int getBreedingAge()
+    {
+        return breedingAge;
+    }
+
+    /**
+     * @return The breeding probability as a threshold for Randomizer.hits().
+     */
+    public long getBreedingThreshold()
+    {
+        return breedingThreshold;
+    }
+
+    /**
+     * @return The maximum number of births.
+     */
+    public int getMaxLitterSize()
+    {
+        return maxLitterSize;
+    }
+
+    /**
+     * @return The distance within which prey is sensed.
+     */
+    public int getVisionRadius()
+    {
+        return visionRadius;
+    }
+
+    /**
+     * @return The species eaten, one bit per id.
+     */
+    public long getDiet()
+    {
+        return diet;
+    }
+
+    /**
+     * @return The ids of the species eaten, in order. The array must
+     *         not be changed.
+     */
+    public int[] getPrey()
+    {
+        return prey;
+    }
+
+    /**
+     * @return The ids of the species that eat this one, in order. The
+     *         array must not be changed.
+     */
+    public int[] getPredators()
+    {
+        return predators;
+    }
+
+    /**
+     * @param prey The id of a species.
+     * @return The food value of that species, or 0 if it is not eaten.
+     */
+    public int getFoodValue(int prey)
+    {
+        return foodValues[prey];
+    }
+
+    /**
+     * @return true if eating adds to the food level, false if it sets it.
+     */
+    public boolean addsFood()
+    {
+        return addsFood;
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.Serializable;
+
+/**
+ * The life-history parameters of one species in one simulation.
+ *
+ * A set of parameters never changes, so it can be read from any
+ * thread without locking. A change is made by deriving a new set with
+ * one of the with methods and publishing it to a simulation, which
+ * takes it into use at the start of its next step; see
+ * Simulator.publishParameters(). Every step therefore sees one
+ * consistent set, whichever thread made the change.
+ */
+public final class SpeciesParameters implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The age at which an animal can start to breed.
+    private final int breedingAge;
+    // The age to which an animal can live.
+    private final int maxAge;
+    // The likelihood of an animal breeding.
+    private final double breedingProbability;
+    // The breeding probability as a threshold for a random word.
+    private final long breedingThreshold;
+    // The maximum number of births.
+    private final int maxLitterSize;
+    // The distance within which a predator senses its prey.
+    private final int visionRadius;
+    // Set when the parameters are published to a simulation.
+    private final int version;
+
+    /**
+     * Create a set of parameters.
+     * @param breedingAge The age at which an animal can start to breed.
+     * @param maxAge The age to which an animal can live.
+     * @param breedingProbability The likelihood of an animal breeding.
+     * @param maxLitterSize The maximum number of births.
+     * @param visionRadius The distance within which a predator senses
+     *                     its prey; 1 for the adjacent locations only.
+     */
+    public SpeciesParameters(int breedingAge, int maxAge, double breedingProbability, int maxLitterSize,
+                             int visionRadius)
+    {
+        this(breedingAge, maxAge, breedingProbability, maxLitterSize, visionRadius, 0);
+    }
+
+    /**
+     * Create a set of parameters with the given version.
+     */
+    private SpeciesParameters(int breedingAge, int maxAge, double breedingProbability,
+                              int maxLitterSize, int visionRadius, int version)
+    {
+        if(visionRadius < 1) {
+            throw new IllegalArgumentException("The vision radius must be at least 1: " + visionRadius);
+        }
+        this.breedingAge = breedingAge;
+        this.maxAge = maxAge;
+        this.breedingProbability = breedingProbability;
+        breedingThreshold = Randomizer.probabilityThreshold(breedingProbability);
+        this.maxLitterSize = maxLitterSize;
+        this.visionRadius = visionRadius;
+        this.version = version;
+    }
+
+    public int getBreedingAge()
+    {
+        return breedingAge;
+    }
+
+    /**
+     * @return These parameters with another breeding age.
+     */
+    public SpeciesParameters withBreedingAge(int newbreedingage)
+    {
+        return new SpeciesParameters(newbreedingage, maxAge, breedingProbability, maxLitterSize,
+                                     visionRadius, version);
+    }
+
+    public int getMaxAge()
+    {
+        return maxAge;
+    }
+
+    /**
+     * @return These parameters with another maximum age.
+     */
+    public SpeciesParameters withMaxAge(int newmaxage)
+    {
+        return new SpeciesParameters(breedingAge, newmaxage, breedingProbability, maxLitterSize,
+                                     visionRadius, version);
+    }
+
+    public double getBreedingProbability()
+    {
+        return breedingProbability;
+    }
+
+    /**
+     * @return The breeding probability as a threshold for Randomizer.hits().
+     */
+    public long getBreedingThreshold()
+    {
+        return breedingThreshold;
+    }
+
+    /**
+     * @return These parameters with another breeding probability.
+     */
+    public SpeciesParameters withBreedingProbability(double newprobability)
+    {
+        return new SpeciesParameters(breedingAge, maxAge, newprobability, maxLitterSize,
+                                     visionRadius, version);
+    }
+
+    public int getMaxLitterSize()
+    {
+        return maxLitterSize;
+    }
+
+    /**
+     * @return These parameters with another maximum litter size.
+     */
+    public SpeciesParameters withMaxLitterSize(int maxlittersize)
+    {
+        return new SpeciesParameters(breedingAge, maxAge, breedingProbability, maxlittersize,
+                                     visionRadius, version);
+    }
+
+    public int getVisionRadius()
+    {
+        return visionRadius;
+    }
+
+    /**
+     * @return These parameters with another vision radius.
+     * @throws IllegalArgumentException If the radius is below 1.
+     */
+    public SpeciesParameters withVisionRadius(int newradius)
+    {
+        return new SpeciesParameters(breedingAge, maxAge, breedingProbability, maxLitterSize,
+                                     newradius, version);
+    }
+
+    /**
+     * @return The number of times parameters of the species have been
+     *         published to the simulation before these.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return These parameters with the given version.
+     */
+    SpeciesParameters withVersion(int newversion)
+    {
+        return new SpeciesParameters(breedingAge, maxAge, breedingProbability, maxLitterSize,
+                                     visionRadius, newversion);
+    }
+
+    /**
+     * @return The parameters as name=value pairs, e.g. for a cache key.
+     */
+    public String toString()
+    {
+        return "breedingAge=" + breedingAge + " maxAge=" + maxAge
+               + " breedingProbability=" + breedingProbability + " maxLitterSize=" + maxLitterSize
+               + " visionRadius=" + visionRadius;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The time a simulation has spent in each phase of its steps, to see
+ * where the time of a step goes. The phases are the deaths at the
+ * start of a step, bringing the distance fields up to date, spreading
+ * the scent, the animals acting, and the end of the step up to telling
+ * the observers, which are not counted.
+ */
+public class StepPhases
+{
+    // The phases.
+    public static final int DEATHS = 0;
+    public static final int DISTANCES = 1;
+    public static final int SCENT = 2;
+    public static final int ACTING = 3;
+    public static final int ENDING = 4;
+    // Their names, by phase.
+    private static final String[] NAMES = {"deaths", "distances", "scent", "acting", "ending"};
+
+    // The nanoseconds spent in each phase.
+    private long[] times;
+    // The number of steps counted.
+    private int steps;
+
+    /**
+     * Create the times of a simulation that has not run yet.
+     */
+    public StepPhases()
+    {
+        times = new long[NAMES.length];
+    }
+
+    /**
+     * Add to the time of a phase.
+     * @param phase The phase.
+     * @param start The value of System.nanoTime() when the phase began.
+     * @return The value of System.nanoTime() now, for the next phase.
+     */
+    public long add(int phase, long start)
+    {
+        long now = System.nanoTime();
+        times[phase] += now - start;
+        return now;
+    }
+
+    /**
+     * Count a finished step.
+     */
+    public void countStep()
+    {
+        steps++;
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The nanoseconds spent in the phase.
+     */
+    public long getTime(int phase)
+    {
+        return times[phase];
+    }
+
+    /**
+     * @return The number of steps counted.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Start counting again.
+     */
+    public void reset()
+    {
+        for(int phase = 0; phase < times.length; phase++) {
+            times[phase] = 0;
+        }
+        steps = 0;
+    }
+
+    /**
+     * @return The milliseconds per step of every phase.
+     */
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        for(int phase = 0; phase < times.length; phase++) {
+            if(phase > 0) {
+                buffer.append(", ");
+            }
+            buffer.append(NAMES[phase]).append(' ');
+            buffer.append(String.format("%.3f", times[phase] / 1e6 / Math.max(steps, 1)));
+        }
+        return buffer.append(" ms per step").toString();
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * A condition under which a simulation run should stop before it has
+ * run all its steps, for instance because a population has exploded.
+ * Runs that are no longer viable always stop.
+ */
+public interface StopCondition
+{
+    /**
+     * Decide whether a simulation should stop. This is asked before
+     * every step.
+     * @param simulator The simulation.
+     * @return true if the simulation should stop.
+     */
+    boolean shouldStop(Simulator simulator);
+}
@@ -0,0 +1,225 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs one simulation on several processes, for fields too large for
+ * one. The field is divided into horizontal strips of rows, each
+ * simulated by a StripWorker, and the coordinator adds up the
+ * populations of the strips at every step.
+ *
+ * The strips run in spatial order with common random numbers, so that
+ * every animal acts at the same point of a step and draws the same
+ * numbers as in a single simulation with those settings; the result is
+ * the same as that of such a simulation, whatever the number of strips.
+ * Animals that cross a border are handed over with the rows at the
+ * border. A strip starts a step as soon as the strip above has
+ * finished it and the strip below has finished the rows at their
+ * border in the step before, so the strips run one or two steps apart
+ * rather than all at once.
+ */
+public class StripCoordinator
+{
+    // How long to wait for the workers to connect, in milliseconds.
+    private static final int CONNECT_TIMEOUT = 60000;
+
+    // The configuration of the simulation, in spatial order with
+    // common random numbers.
+    private RunConfiguration configuration;
+    // The number of strips.
+    private int strips;
+
+    /**
+     * Prepare a simulation divided into strips.
+     * @param configuration The configuration of the simulation, which
+     *                      is run in spatial order with common random
+     *                      numbers, and stepped.
+     * @param strips The number of strips.
+     * @throws IllegalArgumentException If a strip would have fewer
+     *                                  than two rows, the engine is
+     *                                  continuous, a species sees
+     *                                  beyond the adjacent locations,
+     *                                  or animals follow scent or graze.
+     */
+    public StripCoordinator(RunConfiguration configuration, int strips)
+    {
+        if(configuration.isContinuous()) {
+            throw new IllegalArgumentException("Strips are always stepped");
+        }
+        if(strips < 1 || configuration.getDepth() < 2 * strips) {
+            throw new IllegalArgumentException("Every strip needs at least two rows");
+        }
+        for(SpeciesParameters species : configuration.createParameters().values()) {
+            if(species.getVisionRadius() > 1) {
+                // The strips exchange a single row at each border.
+                throw new IllegalArgumentException("Strips need a vision radius of 1");
+            }
+        }
+        if(configuration.isScent() || configuration.isGrass()) {
+            throw new IllegalArgumentException("Strips cannot exchange scent or grass");
+        }
+        this.configuration = configuration.copy();
+        this.configuration.set("commonRandomNumbers", "true");
+        this.configuration.set("order", "spatial");
+        this.strips = strips;
+    }
+
+    /**
+     * Run the simulation for the configured number of steps. The
+     * workers connect to the given port; with launch set they are
+     * started here as processes on this machine, otherwise they must
+     * be started elsewhere with the host and port of this one.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param launch true to start the workers here.
+     * @return The population of the whole field at every step.
+     * @throws IOException If a worker cannot be reached or fails.
+     */
+    public PopulationSeries run(int port, boolean launch) throws IOException, InterruptedException
+    {
+        List<StripWorker.Link> workers = new ArrayList<StripWorker.Link>();
+        List<Process> processes = new ArrayList<Process>();
+        ServerSocket server = new ServerSocket(port);
+        try {
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            if(launch) {
+                for(int i = 0; i < strips; i++) {
+                    processes.add(launch(server.getLocalPort()));
+                }
+            }
+            else {
+                System.err.println("Waiting for " + strips + " workers on port " + server.getLocalPort());
+            }
+            // The strips are numbered in the order the workers connect.
+            List<Integer> ports = new ArrayList<Integer>();
+            for(int i = 0; i < strips; i++) {
+                try {
+                    workers.add(new StripWorker.Link(server.accept()));
+                }
+                catch(SocketTimeoutException e) {
+                    throw new IOException("Only " + i + " of " + strips + " workers have connected");
+                }
+                ports.add((Integer) workers.get(i).receive());
+            }
+            for(int i = 0; i < strips; i++) {
+                StripWorker.Link worker = workers.get(i);
+                worker.send(configuration.toString());
+                worker.send(i);
+                worker.send(strips);
+                if(i > 0) {
+                    worker.send(workers.get(i - 1).getSocket().getInetAddress().getHostAddress());
+                    worker.send(ports.get(i - 1));
+                }
+                else {
+                    // The top strip has no strip above it.
+                    worker.send("");
+                    worker.send(0);
+                }
+            }
+
+            List<Class> species = null;
+            for(StripWorker.Link worker : workers) {
+                species = Arrays.asList((Class[]) worker.receive());
+            }
+            PopulationSeries series = new PopulationSeries(species);
+            for(int step = 0; step <= configuration.getSteps(); step++) {
+                int[] total = new int[species.size()];
+                for(StripWorker.Link worker : workers) {
+                    int[] counts = (int[]) worker.receive();
+                    for(int i = 0; i < total.length; i++) {
+                        total[i] += counts[i];
+                    }
+                }
+                series.add(step, total);
+            }
+            for(Process process : processes) {
+                process.waitFor();
+            }
+            return series;
+        }
+        finally {
+            server.close();
+            for(StripWorker.Link worker : workers) {
+                worker.close();
+            }
+            for(Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Run the same simulation in this process, as one field.
+     * @return The population at every step.
+     */
+    public PopulationSeries runSingle()
+    {
+        Simulator simulator = configuration.createSimulator();
+        PopulationSeries series = new PopulationSeries(simulator.getSpecies());
+        simulator.addObserver(series);
+        simulator.notifyObservers();
+        for(int step = 1; step <= configuration.getSteps(); step++) {
+            simulator.simulateOneStep();
+        }
+        return series;
+    }
+
+    /**
+     * Start a worker process on this machine, with the same Java and
+     * class path as this one.
+     */
+    private Process launch(int port) throws IOException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                    "StripWorker", "localhost", String.valueOf(port));
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    /**
+     * Run a simulation divided into strips from the command line. The
+     * arguments are those of HeadlessRunner, plus strips=N (default
+     * 2), port=P (default any free port) and launch=false to wait for
+     * workers started elsewhere with "java StripWorker host port".
+     * The population of the whole field is written as comma-separated
+     * values. With verify=true the simulation is also run in this
+     * process as one field, and the exit status is 1 if the results
+     * differ.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        int strips = Integer.parseInt(configuration.getOption("strips", "2"));
+        int port = Integer.parseInt(configuration.getOption("port", "0"));
+        boolean launch = Boolean.parseBoolean(configuration.getOption("launch", "true"));
+
+        StripCoordinator coordinator = new StripCoordinator(configuration, strips);
+        long start = System.nanoTime();
+        PopulationSeries series = coordinator.run(port, launch);
+        long elapsed = System.nanoTime() - start;
+
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        series.write(out);
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        System.err.println("Strips: " + strips + ", ms per step: " + (elapsed / 1e6 / configuration.getSteps()));
+
+        if(Boolean.parseBoolean(configuration.getOption("verify", "false"))) {
+            int step = series.firstDifference(coordinator.runSingle());
+            if(step >= 0) {
+                System.err.println("Differs from the single-process run at step " + step);
+                System.exit(1);
+            }
+            System.err.println("Same as the single-process run");
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A process that simulates one strip of rows of a field that is divided
+ * over several processes; see StripCoordinator.
+ *
+ * Each step the worker waits for the strip above to finish that step,
+ * and takes over the row it shares with it on either side of the
+ * border. It then lets its own rows act in spatial order. As soon as
+ * its first two rows have acted, the rows at its top border can no
+ * longer change in this step, so it sends them up and the strip above
+ * can start the next step. When all its rows have acted it sends the
+ * rows at its bottom border down, and once the strip below has sent
+ * them back after its first two rows, its population to the
+ * coordinator.
+ */
+public class StripWorker
+{
+    // The simulation of the strip.
+    private Simulator simulator;
+    // The number of the strip, from the top, and the number of strips.
+    private int index;
+    private int strips;
+    // The first row of the strip, and the row after the last.
+    private int first;
+    private int end;
+    // The number of steps to run.
+    private int steps;
+    // The connections to the coordinator and the neighbouring strips;
+    // up and down are null for the top and bottom strip.
+    private Link coordinator;
+    private Link up;
+    private Link down;
+
+    /**
+     * A connection to another process, over which whole objects are
+     * sent. Received objects are read on a thread of their own, so
+     * that a process sending to a neighbour never waits for that
+     * neighbour to read.
+     */
+    static class Link implements Runnable
+    {
+        // The connection.
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+        // The objects received and not yet taken, or the exception
+        // that ended the connection.
+        private final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+
+        /**
+         * Start using a connection.
+         * @param socket The connection.
+         * @throws IOException If the connection fails.
+         */
+        Link(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            // Both sides write their stream header before reading the other's.
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            Thread reader = new Thread(this, "StripWorker.Link");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Send an object.
+         * @param message The object.
+         * @throws IOException If the connection fails.
+         */
+        void send(Object message) throws IOException
+        {
+            out.writeObject(message);
+            // Do not keep the sent objects, as they are never sent again.
+            out.reset();
+            out.flush();
+        }
+
+        /**
+         * Take the next object received, waiting for it if need be.
+         * @return The object.
+         * @throws IOException If the connection has failed.
+         */
+        Object receive() throws IOException, InterruptedException
+        {
+            Object message = received.take();
+            if(message instanceof IOException) {
+                received.add(message);
+                throw (IOException) message;
+            }
+            return message;
+        }
+
+        /**
+         * @return The connection.
+         */
+        Socket getSocket()
+        {
+            return socket;
+        }
+
+        /**
+         * Close the connection.
+         */
+        void close()
+        {
+            try {
+                socket.close();
+            }
+            catch(IOException e) {
+                // Closed already.
+            }
+        }
+
+        /**
+         * Read objects until the connection ends.
+         */
+        public void run()
+        {
+            try {
+                while(true) {
+                    received.add(in.readObject());
+                }
+            }
+            catch(IOException e) {
+                received.add(e);
+            }
+            catch(ClassNotFoundException e) {
+                received.add(new IOException(e));
+            }
+        }
+    }
+
+    /**
+     * Connect to the coordinator and to the neighbouring strips.
+     * @param host The host of the coordinator.
+     * @param port The port of the coordinator.
+     * @throws IOException If a connection fails.
+     */
+    public StripWorker(String host, int port) throws IOException, InterruptedException
+    {
+        // The strip below connects to this one.
+        ServerSocket server = new ServerSocket(0);
+        try {
+            coordinator = new Link(new Socket(host, port));
+            coordinator.send(server.getLocalPort());
+            RunConfiguration configuration = RunConfiguration.parse(((String) coordinator.receive()).split(" "));
+            index = (Integer) coordinator.receive();
+            strips = (Integer) coordinator.receive();
+            String upHost = (String) coordinator.receive();
+            int upPort = (Integer) coordinator.receive();
+
+            steps = configuration.getSteps();
+            first = index * configuration.getDepth() / strips;
+            end = (index + 1) * configuration.getDepth() / strips;
+            simulator = configuration.createSimulator();
+            simulator.setRegion(first, end);
+            if(index > 0) {
+                up = new Link(new Socket(upHost, upPort));
+            }
+            if(index < strips - 1) {
+                down = new Link(server.accept());
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Run the strip for the configured number of steps.
+     * @throws IOException If a connection fails.
+     */
+    public void run() throws IOException, InterruptedException
+    {
+        try {
+            // An array, so that the coordinator can read it without an unchecked cast.
+            coordinator.send(simulator.getSpecies().toArray(new Class[0]));
+            sendPopulation();
+            for(int step = 1; step <= steps; step++) {
+                if(up != null) {
+                    // The rows at the border with the strip above, after its step.
+                    receiveRows(up, first - 1);
+                }
+                simulator.beginStep();
+                int split = Math.min(first + 2, end);
+                simulator.actRows(first, split);
+                if(up != null) {
+                    sendRows(up, first - 1);
+                }
+                simulator.actRows(split, end);
+                simulator.endStep();
+                if(down != null) {
+                    sendRows(down, end - 1);
+                    // The strip below may still move into or eat from the
+                    // bottom row, so the population is only known after
+                    // the rows at that border come back.
+                    receiveRows(down, end - 1);
+                }
+                sendPopulation();
+            }
+        }
+        finally {
+            coordinator.close();
+            if(up != null) {
+                up.close();
+            }
+            if(down != null) {
+                down.close();
+            }
+        }
+    }
+
+    /**
+     * Send two consecutive rows to a neighbour.
+     * @param link The neighbour.
+     * @param row The first of the rows.
+     */
+    private void sendRows(Link link, int row) throws IOException
+    {
+        link.send(new Animal[][] {simulator.getRow(row), simulator.getRow(row + 1)});
+    }
+
+    /**
+     * Take two consecutive rows from a neighbour.
+     * @param link The neighbour.
+     * @param row The first of the rows.
+     */
+    private void receiveRows(Link link, int row) throws IOException, InterruptedException
+    {
+        Animal[][] rows = (Animal[][]) link.receive();
+        simulator.replaceRow(row, rows[0]);
+        simulator.replaceRow(row + 1, rows[1]);
+    }
+
+    /**
+     * Send the population of the strip to the coordinator.
+     */
+    private void sendPopulation() throws IOException
+    {
+        List<Class> species = simulator.getSpecies();
+        FieldStats stats = simulator.getStats();
+        int[] counts = new int[species.size()];
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = stats.getCount(species.get(i));
+        }
+        coordinator.send(counts);
+    }
+
+    /**
+     * Run a worker. The arguments are the host and port of the
+     * coordinator, which sends the configuration and the strip.
+     * @param args The host and the port.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        if(args.length != 2) {
+            System.err.println("Usage: java StripWorker host port");
+            System.exit(2);
+        }
+        new StripWorker(args[0], Integer.parseInt(args[1])).run();
+    }
+}
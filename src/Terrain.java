@@ -0,0 +1,194 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import javax.imageio.ImageIO;
+
+/**
+ * The locations of a field that no animal can enter, such as rivers,
+ * roads and fenced reserves. A terrain never changes once made; see
+ * Field.setTerrain().
+ *
+ * A terrain can be read from an image of the size of the field, such
+ * as a PNG, in which dark pixels are blocked and light or transparent
+ * ones are open, or from a raw bitmap: either one byte per location,
+ * row by row, where any byte but 0 is blocked, or one bit per location
+ * with each row padded to whole bytes and the first location in the
+ * highest bit, as in the data of a raw PBM file. The kind of a raw
+ * file follows from its length.
+ */
+public class Terrain implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // Whether each location is blocked, row by row.
+    private final boolean[] blocked;
+
+    /**
+     * Create a terrain.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param blocked Whether each location is blocked, row by row.
+     * @throws IllegalArgumentException If the array does not fit the
+     *                                  field, or every location is blocked.
+     */
+    public Terrain(int depth, int width, boolean[] blocked)
+    {
+        if(blocked.length != depth * width) {
+            throw new IllegalArgumentException("A terrain of " + blocked.length + " locations for a field of "
+                                               + depth + " by " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.blocked = blocked.clone();
+        if(getOpenCount() == 0) {
+            throw new IllegalArgumentException("Every location is blocked");
+        }
+    }
+
+    /**
+     * Read a terrain from a file: an image if its name ends in .png,
+     * .gif, .bmp or .jpg, and otherwise a raw bitmap.
+     * @param file The file.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The terrain.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If it does not fit the field.
+     */
+    public static Terrain load(File file, int depth, int width) throws IOException
+    {
+        String name = file.getName().toLowerCase();
+        if(name.endsWith(".png") || name.endsWith(".gif") || name.endsWith(".bmp") || name.endsWith(".jpg")) {
+            return loadImage(file, depth, width);
+        }
+        return loadRaw(file, depth, width);
+    }
+
+    /**
+     * Read a terrain from an image of the size of the field.
+     */
+    private static Terrain loadImage(File file, int depth, int width) throws IOException
+    {
+        BufferedImage image = ImageIO.read(file);
+        if(image == null) {
+            throw new IOException("Not an image: " + file);
+        }
+        if(image.getHeight() != depth || image.getWidth() != width) {
+            throw new IllegalArgumentException("An image of " + image.getHeight() + " by " + image.getWidth()
+                                               + " for a field of " + depth + " by " + width);
+        }
+        boolean[] blocked = new boolean[depth * width];
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                int argb = image.getRGB(col, row);
+                int alpha = argb >>> 24;
+                int grey = (((argb >> 16) & 0xFF) + ((argb >> 8) & 0xFF) + (argb & 0xFF)) / 3;
+                blocked[row * width + col] = alpha >= 128 && grey < 128;
+            }
+        }
+        return new Terrain(depth, width, blocked);
+    }
+
+    /**
+     * Read a terrain from a raw bitmap of one byte or one bit per location.
+     */
+    private static Terrain loadRaw(File file, int depth, int width) throws IOException
+    {
+        int bytesPerRow = (width + 7) / 8;
+        long length = file.length();
+        if(length != (long) depth * width && length != (long) depth * bytesPerRow) {
+            throw new IllegalArgumentException("A raw bitmap of " + length + " bytes for a field of "
+                                               + depth + " by " + width);
+        }
+        byte[] data = new byte[(int) length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while(read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if(n < 0) {
+                    throw new IOException("The file has become shorter: " + file);
+                }
+                read += n;
+            }
+        }
+        finally {
+            in.close();
+        }
+        boolean[] blocked = new boolean[depth * width];
+        boolean bits = length != (long) depth * width;
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                if(bits) {
+                    blocked[row * width + col] = (data[row * bytesPerRow + col / 8] & (0x80 >> (col % 8))) != 0;
+                }
+                else {
+                    blocked[row * width + col] = data[row * width + col] != 0;
+                }
+            }
+        }
+        return new Terrain(depth, width, blocked);
+    }
+
+    /**
+     * @param row The row of a location.
+     * @param col The column of the location.
+     * @return true if no animal can enter the location.
+     */
+    public boolean isBlocked(int row, int col)
+    {
+        return blocked[row * width + col];
+    }
+
+    /**
+     * @return The number of locations that are not blocked.
+     */
+    public int getOpenCount()
+    {
+        int open = 0;
+        for(boolean b : blocked) {
+            if(!b) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return A short name that differs between terrains, for the
+     *         history of a simulation.
+     */
+    public String getKey()
+    {
+        StringBuilder runs = new StringBuilder();
+        runs.append(depth).append('x').append(width);
+        // The lengths of the runs of open and blocked locations.
+        boolean current = false;
+        int length = 0;
+        for(boolean b : blocked) {
+            if(b != current) {
+                runs.append(',').append(length);
+                current = b;
+                length = 0;
+            }
+            length++;
+        }
+        runs.append(',').append(length);
+        return ResultCache.hash(runs.toString()).substring(0, 16);
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel holding the step at which each animal
+ * dies of old age or hunger. Each level has 64 slots; level 0 holds
+ * the animals due within the next 64 steps, level 1 those due within
+ * 64 * 64 steps, and so on. Advancing one step only touches the slot
+ * that becomes due, plus a higher-level slot every 64 steps whose
+ * animals are spread over the level below.
+ * 
+ * Entries are lazy: an animal whose death step has moved later (for
+ * instance because a fox has eaten) is simply put back when its old
+ * slot comes up. A death step that moves earlier needs the wheel to
+ * be rebuilt.
+ */
+public class TimingWheel implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    // The number of bits of the step number handled by each level.
+    private static final int LEVEL_BITS = 6;
+    // The number of slots per level.
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    // The number of levels; later steps go into the overflow list.
+    private static final int LEVELS = 4;
+    
+    // The slots of every level.
+    private List<List<Animal>> slots;
+    // The animals due beyond the range of the highest level.
+    private List<Animal> overflow;
+    // An empty list that replaces the next slot to be emptied.
+    private List<Animal> spare;
+    // The last step the wheel has been advanced to.
+    private int now;
+
+    /**
+     * Create an empty timing wheel.
+     * @param now The current step of the simulation.
+     */
+    public TimingWheel(int now)
+    {
+        this.now = now;
+        slots = new ArrayList<List<Animal>>(LEVELS * SLOTS);
+        for(int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<Animal>());
+        }
+        overflow = new ArrayList<Animal>();
+        spare = new ArrayList<Animal>();
+    }
+    
+    /**
+     * @return A wheel with the same animals due at the same steps.
+     */
+    public TimingWheel copy()
+    {
+        TimingWheel copy = new TimingWheel(now);
+        for(int i = 0; i < slots.size(); i++) {
+            copy.slots.get(i).addAll(slots.get(i));
+        }
+        copy.overflow.addAll(overflow);
+        return copy;
+    }
+    
+    /**
+     * Remove all animals from the wheel.
+     */
+    public void clear()
+    {
+        for(List<Animal> slot : slots) {
+            slot.clear();
+        }
+        overflow.clear();
+    }
+    
+    /**
+     * Schedule the death of an animal at its current death step.
+     * @param animal The animal to schedule.
+     */
+    public void schedule(Animal animal)
+    {
+        // Animals that are already due go into the next step's slot.
+        int due = Math.max(animal.getDeathStep(), now + 1);
+        int delta = due - now;
+        for(int level = 0; level < LEVELS; level++) {
+            if(delta < 1L << (LEVEL_BITS * (level + 1))) {
+                int slot = (due >>> (LEVEL_BITS * level)) & (SLOTS - 1);
+                slots.get(level * SLOTS + slot).add(animal);
+                return;
+            }
+        }
+        overflow.add(animal);
+    }
+    
+    /**
+     * Schedule the deaths of all live animals in the list.
+     * @param animals The animals to schedule.
+     */
+    public void scheduleAll(List<Animal> animals)
+    {
+        for(Animal animal : animals) {
+            if(animal.isAlive()) {
+                schedule(animal);
+            }
+        }
+    }
+    
+    /**
+     * Advance the wheel to the given step.
+     * @param step The new current step; not before the current one.
+     * @return The live animals whose death is due by that step.
+     */
+    public List<Animal> advance(int step)
+    {
+        List<Animal> due = new ArrayList<Animal>();
+        while(now < step) {
+            now++;
+            if((now & ((1 << (LEVEL_BITS * LEVELS)) - 1)) == 0) {
+                List<Animal> later = overflow;
+                overflow = spare;
+                spare = later;
+                reschedule(later, due);
+            }
+            // Spread the higher-level slots that come up over the levels
+            // below, highest level first.
+            for(int level = LEVELS - 1; level > 0; level--) {
+                if((now & ((1 << (LEVEL_BITS * level)) - 1)) == 0) {
+                    int slot = (now >>> (LEVEL_BITS * level)) & (SLOTS - 1);
+                    reschedule(takeSlot(level, slot), due);
+                }
+            }
+            reschedule(takeSlot(0, now & (SLOTS - 1)), due);
+        }
+        return due;
+    }
+    
+    /**
+     * Empty one slot of the wheel.
+     * @return The animals that were in the slot.
+     */
+    private List<Animal> takeSlot(int level, int slot)
+    {
+        int index = level * SLOTS + slot;
+        List<Animal> animals = slots.get(index);
+        slots.set(index, spare);
+        spare = animals;
+        return animals;
+    }
+    
+    /**
+     * Put animals taken from a slot back into the wheel, or into the
+     * due list if their death step has been reached. Animals that
+     * have died in the meantime are dropped.
+     */
+    private void reschedule(List<Animal> animals, List<Animal> due)
+    {
+        for(Animal animal : animals) {
+            if(animal.isAlive()) {
+                if(animal.getDeathStep() <= now) {
+                    due.add(animal);
+                }
+                else {
+                    schedule(animal);
+                }
+            }
+        }
+        animals.clear();
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a batch of headless simulations on a pool of worker processes
+ * on this machine, so that every run has a heap of its own and a run
+ * that crashes its process does not take the others with it.
+ *
+ * The jobs are kept in a JobQueue on disk, from which each PoolWorker
+ * takes one job at a time. When a worker dies, the job it was running
+ * is put back in the queue and a new worker is started; a job that has
+ * crashed its worker MAX_ATTEMPTS times is given up on. As the queue
+ * and the results are files, a batch that is stopped can be started
+ * again with the same queue, and only the jobs that are not done yet
+ * are run.
+ */
+public class WorkerPool
+{
+    // The number of times a job may crash its worker.
+    private static final int MAX_ATTEMPTS = 3;
+    // How often the workers are checked, in milliseconds.
+    private static final long POLL_INTERVAL = 100;
+
+    // The queue of jobs.
+    private JobQueue queue;
+    // The directory of the queue.
+    private File directory;
+    // The number of workers running at the same time.
+    private int size;
+    // The maximum heap of a worker, such as "2g", or null for the default.
+    private String heap;
+    // The names of the jobs submitted, in order.
+    private List<String> jobs;
+    // The number of times each job has crashed its worker.
+    private Map<String, Integer> attempts;
+    // The number of workers started so far, used to name them.
+    private int started;
+
+    /**
+     * Create a pool.
+     * @param directory The directory of the job queue.
+     * @param size The number of workers running at the same time.
+     * @param heap The maximum heap of a worker, such as "2g", or null
+     *             for the default of the Java platform.
+     * @throws IOException If the queue cannot be opened.
+     */
+    public WorkerPool(File directory, int size, String heap) throws IOException
+    {
+        this.directory = directory;
+        this.size = size;
+        this.heap = heap;
+        queue = new JobQueue(directory);
+        jobs = new ArrayList<String>();
+        attempts = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Add a run to the batch. A run that is in the queue already, for
+     * instance from a batch that was stopped, is not added again.
+     * @param configuration The configuration of the run.
+     * @throws IOException If the job cannot be written.
+     */
+    public void submit(RunConfiguration configuration) throws IOException
+    {
+        String settings = configuration.toString();
+        // The number keeps the jobs in order; the hash tells runs apart
+        // when the batch is changed between two starts.
+        String name = String.format("%05d-%s", jobs.size(), ResultCache.hash(settings).substring(0, 12));
+        jobs.add(name);
+        queue.add(name, settings);
+    }
+
+    /**
+     * Run workers until every job is done or given up on.
+     * @throws IOException If workers keep failing without running any job.
+     */
+    public void run() throws IOException, InterruptedException
+    {
+        // Jobs claimed by workers of an earlier pool that was stopped.
+        queue.releaseAll();
+        Map<String, Process> workers = new LinkedHashMap<String, Process>();
+        int failures = 0;
+        try {
+            while(queue.getPendingCount() > 0 || !workers.isEmpty()) {
+                for(Iterator<Map.Entry<String, Process>> it = workers.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, Process> worker = it.next();
+                    Integer exit = exitValue(worker.getValue());
+                    if(exit == null) {
+                        continue;
+                    }
+                    it.remove();
+                    List<String> crashed = queue.release(worker.getKey());
+                    for(String job : crashed) {
+                        retry(job, worker.getKey(), exit);
+                    }
+                    if(exit != 0 && crashed.isEmpty()) {
+                        failures++;
+                        if(failures > size * MAX_ATTEMPTS) {
+                            throw new IOException("Workers keep failing, last with exit status " + exit);
+                        }
+                    }
+                }
+                while(workers.size() < size && queue.getPendingCount() > 0) {
+                    String name = "worker" + started++;
+                    workers.put(name, launch(name));
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+        finally {
+            for(Process process : workers.values()) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Write the population at every step of every job that is done as
+     * comma-separated values, with the number of the job in the first
+     * column.
+     * @param out Where to write.
+     * @throws IOException If a result cannot be read.
+     */
+    public void write(PrintStream out) throws IOException
+    {
+        boolean header = false;
+        for(int i = 0; i < jobs.size(); i++) {
+            String result = queue.getResult(jobs.get(i));
+            if(result == null) {
+                System.err.println("Job " + i + " has failed");
+                continue;
+            }
+            String[] lines = result.split("\n");
+            if(!header) {
+                out.println("job," + lines[0]);
+                header = true;
+            }
+            for(int line = 1; line < lines.length; line++) {
+                out.println(i + "," + lines[line]);
+            }
+        }
+    }
+
+    /**
+     * Put a job whose worker has died back in the queue, or give up on
+     * it if it has crashed its worker too often.
+     */
+    private void retry(String job, String worker, int exit)
+    {
+        Integer count = attempts.get(job);
+        count = count == null ? 1 : count + 1;
+        attempts.put(job, count);
+        if(count >= MAX_ATTEMPTS) {
+            queue.fail(job);
+            System.err.println("Giving up on job " + job + " after " + count + " crashes");
+        }
+        else {
+            System.err.println("Job " + job + " crashed " + worker + " (exit status " + exit + "); trying again");
+        }
+    }
+
+    /**
+     * Start a worker process, with the same Java and class path as this one.
+     */
+    private Process launch(String name) throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if(heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("PoolWorker");
+        command.add(directory.getPath());
+        command.add(name);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    /**
+     * @return The exit status of a process, or null if it is still running.
+     */
+    private static Integer exitValue(Process process)
+    {
+        try {
+            return process.exitValue();
+        }
+        catch(IllegalThreadStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a batch from the command line. The arguments are those of
+     * HeadlessRunner, which apply to every run, plus:
+     * <pre>
+     *   jobs=file      the runs, one per line, as settings of the form
+     *                  name=value separated by spaces
+     *   queue=dir      the directory of the job queue (default .jobs)
+     *   workers=N      workers at the same time (default: cores)
+     *   heap=size      maximum heap of each worker, such as 2g
+     * </pre>
+     * Empty lines and lines starting with # in the jobs file are skipped.
+     * @param args Settings of the form name=value.
+     */
+    public static void main(String args[]) throws Exception
+    {
+        RunConfiguration configuration = RunConfiguration.parse(args);
+        String jobs = configuration.getOption("jobs", null);
+        if(jobs == null) {
+            System.err.println("Usage: java WorkerPool jobs=file [queue=dir] [workers=N] [heap=size] [settings]");
+            System.exit(2);
+        }
+        File directory = new File(configuration.getOption("queue", ".jobs"));
+        int size = Integer.parseInt(configuration.getOption("workers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        WorkerPool pool = new WorkerPool(directory, size, configuration.getOption("heap", null));
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(jobs), "UTF-8"));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                line = line.trim();
+                if(line.length() > 0 && !line.startsWith("#")) {
+                    RunConfiguration job = configuration.copy();
+                    for(String setting : line.split("\\s+")) {
+                        int split = setting.indexOf('=');
+                        if(split <= 0) {
+                            throw new IllegalArgumentException("Expected name=value: " + setting);
+                        }
+                        job.set(setting.substring(0, split), setting.substring(split + 1));
+                    }
+                    pool.submit(job);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        long start = System.nanoTime();
+        pool.run();
+        long elapsed = System.nanoTime() - start;
+
+        String file = configuration.getOption("out", null);
+        PrintStream out = file != null ? new PrintStream(file) : System.out;
+        pool.write(out);
+        out.flush();
+        if(out != System.out) {
+            out.close();
+        }
+        System.err.println("Jobs: " + pool.jobs.size() + ", workers: " + size + ", ms: " + (elapsed / 1e6));
+    }
+}